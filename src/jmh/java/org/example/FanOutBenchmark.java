@@ -0,0 +1,122 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The broadcaster's loop (read a frame, publish it to the hub, release it) against N threaded
+// stream clients whose senders write into in-memory sinks. "publish" is the broadcaster's
+// own cost per frame with the senders draining concurrently; "publishAndDeliver" waits until
+// every client has written the frame, so its sample time is the fan-out latency.
+// Run with -prof gc for the allocation rate per frame.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int clients;
+
+    @Param({"16384", "65536", "262144"})
+    public int frameSize;
+
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private FrameBufferPool pool;
+    private MjpegFrameReader reader;
+    private FrameHub hub;
+    private List<StreamClient> subscribers;
+    private ExecutorService senders;
+    private long sequence = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new FrameBufferPool(64);
+        reader = new MjpegFrameReader(new SyntheticMjpegSource(frameSize, 42));
+        hub = new FrameHub("bench", new FrameRingBuffer(30));
+        senders = Executors.newVirtualThreadPerTaskExecutor();
+        subscribers = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            StreamClient client = new StreamClient("bench-" + i, new CountingSink(pendingWrites), 3, 0);
+            hub.subscribe(client);
+            subscribers.add(client);
+            senders.execute(client::run);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (StreamClient client : subscribers) {
+            hub.unsubscribe(client);
+            client.close();
+        }
+        senders.shutdown();
+        senders.awaitTermination(10, TimeUnit.SECONDS);
+        hub.getFrames().clear();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long publish() throws IOException {
+        Frame frame = reader.readFrame(pool, sequence++);
+        hub.publish(frame);
+        frame.release();
+        return frame.sequence();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long publishAndDeliver() throws IOException {
+        Frame frame = reader.readFrame(pool, sequence++);
+        pendingWrites.set(clients);
+        hub.publish(frame);
+        frame.release();
+        while (pendingWrites.get() > 0) {
+            Thread.onSpinWait();
+        }
+        return frame.sequence();
+    }
+
+    // Discards the bytes; StreamClient flushes once per frame, which counts as one delivery
+    private static final class CountingSink extends OutputStream {
+        private final AtomicInteger pendingWrites;
+
+        CountingSink(AtomicInteger pendingWrites) {
+            this.pendingWrites = pendingWrites;
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+            pendingWrites.decrementAndGet();
+        }
+    }
+}
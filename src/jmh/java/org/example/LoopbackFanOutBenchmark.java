@@ -0,0 +1,138 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The NIO engine end to end: frames are published to a hub served by NioStreamServer and
+// read back by N loopback sockets on one selector thread. Each op waits until every socket
+// has received the whole part, so the sample time is the fan-out latency over real sockets.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoopbackFanOutBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int clients;
+
+    @Param({"16384", "65536", "262144"})
+    public int frameSize;
+
+    @Param({"2"})
+    public int selectorThreads;
+
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private FrameBufferPool pool;
+    private MjpegFrameReader reader;
+    private FrameHub hub;
+    private NioStreamServer server;
+    private Selector selector;
+    private final List<SocketChannel> channels = new ArrayList<>();
+    private Thread drainThread;
+    private volatile boolean draining = true;
+    private long expectedBytes;
+    private long sequence = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        pool = new FrameBufferPool(64);
+        reader = new MjpegFrameReader(new SyntheticMjpegSource(frameSize, 42));
+        hub = new FrameHub("bench", new FrameRingBuffer(30));
+        server = new NioStreamServer(0, selectorThreads, 3, 0, (camera, profile) -> hub);
+        server.start();
+
+        selector = Selector.open();
+        byte[] request = "GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < clients; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+            channel.write(ByteBuffer.wrap(request));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            channels.add(channel);
+        }
+        drainThread = new Thread(this::drain, "loopback-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+
+        while (hub.subscriberCount() < clients) {
+            Thread.sleep(10);
+        }
+        // Let the response heads arrive, everything after them is frame data
+        long settled;
+        do {
+            settled = receivedBytes.get();
+            Thread.sleep(200);
+        } while (receivedBytes.get() != settled);
+        expectedBytes = settled;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        draining = false;
+        selector.wakeup();
+        drainThread.join(2000);
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+        server.stop();
+        hub.getFrames().clear();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long publishAndDeliver() throws IOException {
+        Frame frame = reader.readFrame(pool, sequence++);
+        expectedBytes += (long) frame.wireLength() * clients;
+        hub.publish(frame);
+        frame.release();
+        while (receivedBytes.get() < expectedBytes) {
+            Thread.onSpinWait();
+        }
+        return frame.sequence();
+    }
+
+    private void drain() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+            while (draining) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    int read = ((SocketChannel) key.channel()).read(buffer.clear());
+                    if (read > 0) {
+                        receivedBytes.addAndGet(read);
+                    } else if (read < 0) {
+                        key.cancel();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("LoopbackFanOutBenchmark: drain failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Endless multipart MJPEG stream held in memory, shaped like the camera server's output, so
+// benchmarks exercise the real frame parser without a network source. Frames are JPEG-like
+// (SOI, incompressible body, EOI) and each one in the cycle has different bytes.
+public class SyntheticMjpegSource extends InputStream {
+    private static final int FRAMES_PER_CYCLE = 8;
+
+    private final byte[] cycle;
+    private int position = 0;
+
+    public SyntheticMjpegSource(int frameSize, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(FRAMES_PER_CYCLE * (frameSize + 128));
+        byte[] jpeg = new byte[frameSize];
+        for (int i = 0; i < FRAMES_PER_CYCLE; i++) {
+            random.nextBytes(jpeg);
+            jpeg[0] = (byte) 0xFF;
+            jpeg[1] = (byte) 0xD8;
+            jpeg[frameSize - 2] = (byte) 0xFF;
+            jpeg[frameSize - 1] = (byte) 0xD9;
+            out.writeBytes(("--frame\r\nContent-Type: image/jpeg\r\nContent-Length: " + frameSize + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(jpeg);
+            out.writeBytes(Frame.PART_TRAILER);
+        }
+        this.cycle = out.toByteArray();
+    }
+
+    @Override
+    public int read() {
+        int value = cycle[position] & 0xFF;
+        position = (position + 1) % cycle.length;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int count = Math.min(length, cycle.length - position);
+        System.arraycopy(cycle, position, buffer, offset, count);
+        position = (position + count) % cycle.length;
+        return count;
+    }
+}
@@ -0,0 +1,28 @@
+#ifndef FRAME_SOURCE_H
+#define FRAME_SOURCE_H
+
+#include <stddef.h>
+
+/*
+    Where the server's frames come from. The event loop waits for fd to turn
+    readable, then calls next_frame until it returns 0. A frame stays valid
+    until release_frame; the server copies it out straight away, so a camera
+    buffer goes back to the driver before any client is written to.
+*/
+struct frame_source {
+    int fd;
+    size_t max_frame_size;
+    // 1 with a frame, 0 when none is ready yet, -1 when the source failed
+    int (*next_frame)(struct frame_source *source, const unsigned char **data, size_t *length);
+    void (*release_frame)(struct frame_source *source);
+    void (*close)(struct frame_source *source);
+    void *state;
+};
+
+// MJPEG capture from a V4L2 device through mmap'ed streaming buffers
+int v4l2_source_open(struct frame_source *source, const char *device, int width, int height);
+
+// The JPEG files of a directory in name order, looped at a fixed rate
+int replay_source_open(struct frame_source *source, const char *dir, int fps);
+
+#endif
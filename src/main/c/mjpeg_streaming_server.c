@@ -1,19 +1,33 @@
+#define _DEFAULT_SOURCE // getopt and clock_gettime under -std=c99
 
 #include <arpa/inet.h>
+#include <errno.h>
 #include <fcntl.h>
-#include <linux/videodev2.h>
 #include <signal.h>
+#include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
-#include <sys/ioctl.h>
+#include <sys/epoll.h>
+#include <sys/mman.h>
 #include <sys/socket.h>
+#include <sys/uio.h>
+#include <sys/un.h>
+#include <time.h>
 #include <unistd.h>
 
+#include "frame_source.h"
+
 #define PORT 8080
 #define DEVICE "/dev/video99"
 #define FRAME_WIDTH 1280
 #define FRAME_HEIGHT 720
+#define UNIX_SOCKET_PATH "/tmp/mjpeg_stream.sock"
+#define UNIX_STREAM_MAGIC "MJF1"
+#define RING_MAGIC "MJR1"
+#define RING_VERSION 1
+#define RING_SLOTS 8
+#define MAX_CLIENTS 16
 
 /*
     The /dev/video99 is assumed to be a ffmpeg mirrored v4l2 api compliant stream
@@ -23,34 +37,86 @@
     /dev/video98 and 99, 98 is used for recording and 99 for streaming.
 
     This way we setup a simple C server to capture the frames from /dev/video99
-    and stream them to a (1) single client, the Java server, that then handles
-    multiple clients at the same time.
+    and stream them to the Java server, which then handles the web clients.
+
+    Everything runs in one epoll loop. The camera is read through V4L2 mmap
+    streaming buffers, so a frame is taken as soon as the driver completes it
+    (see v4l2_source.c); with -f a directory of JPEGs is replayed instead (see
+    replay_source.c). Each frame is copied once, the camera buffer goes back to
+    the driver, and up to MAX_CLIENTS non-blocking clients are written from
+    that copy. A client still busy with an earlier frame only keeps the newest
+    one waiting, so a slow client skips frames and never holds up the others.
+
+    Clients connect over HTTP on port 8080 (a multipart MJPEG stream) or over
+    a Unix domain socket (UNIX_SOCKET_PATH, or -u). Since the Java server runs
+    on the same box it can skip TCP and the multipart framing there: a client
+    gets the 4 magic bytes "MJF1", then every frame as a 4-byte big-endian
+    length followed by the JPEG. HTTP stays available as the fallback.
+
+    With -r the frames are also written to a memory-mapped ring file, which
+    the Java server maps with source_url:shm:path. The layout is shared with
+    MappedFrameRing.java: a 64-byte header, then RING_SLOTS slots of a 32-byte
+    header plus the JPEG. Frame n goes into slot n % RING_SLOTS under a seqlock
+    (odd while the slot is written), and the header's published count is
+    raised once the slot is complete.
 
 */
 
-int setup_device(const char *device, int *frame_size) {
-    int fd = open(device, O_RDWR);
-    if (fd < 0) {
-        perror("open");
-        return -1;
-    }
+#define FRAMING_HTTP 0
+#define FRAMING_LENGTH 1
 
-    struct v4l2_format fmt = {0};
-    fmt.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
-    fmt.fmt.pix.width = FRAME_WIDTH;
-    fmt.fmt.pix.height = FRAME_HEIGHT;
-    fmt.fmt.pix.pixelformat = V4L2_PIX_FMT_MJPEG;
-    fmt.fmt.pix.field = V4L2_FIELD_NONE;
+// epoll tags besides the client slots 0..MAX_CLIENTS-1
+#define TAG_SOURCE 1000
+#define TAG_HTTP_LISTENER 1001
+#define TAG_UNIX_LISTENER 1002
 
-    if (ioctl(fd, VIDIOC_S_FMT, &fmt) < 0) {
-        perror("VIDIOC_S_FMT");
-        close(fd);
-        return -1;
-    }
+static const char HTTP_RESPONSE[] =
+    "HTTP/1.1 200 OK\r\n"
+    "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n\r\n";
 
-    *frame_size = fmt.fmt.pix.sizeimage;
-    return fd;
-}
+struct frame {
+    int refs;
+    size_t length;
+    unsigned char data[];
+};
+
+struct client {
+    int fd; // -1 for a free slot
+    int framing;
+    struct frame *sending; // frame being written, NULL when idle
+    struct frame *waiting; // newest frame queued behind it
+    unsigned char prefix[128];
+    size_t prefix_length;
+    size_t sent; // bytes of prefix, frame and suffix written so far
+};
+
+struct ring_header {
+    char magic[4];
+    uint32_t version;
+    uint32_t slot_count;
+    uint32_t slot_size;
+    uint64_t published;
+    unsigned char spare[40];
+};
+
+struct ring_slot {
+    uint32_t lock;
+    uint32_t length;
+    uint64_t frame_sequence;
+    uint64_t timestamp_ms;
+    unsigned char spare[8];
+};
+
+struct ring {
+    unsigned char *base;
+    size_t size;
+    size_t slot_stride;
+    uint32_t slot_size;
+    uint64_t published;
+};
+
+static struct client clients[MAX_CLIENTS];
+static int client_count = 0;
 
 int setup_server() {
     int server_fd = socket(AF_INET, SOCK_STREAM, 0);
@@ -59,6 +125,9 @@ int setup_server() {
         return -1;
     }
 
+    int reuse = 1;
+    setsockopt(server_fd, SOL_SOCKET, SO_REUSEADDR, &reuse, sizeof(reuse));
+
     struct sockaddr_in addr = {0};
     addr.sin_family = AF_INET;
     addr.sin_addr.s_addr = INADDR_ANY;
@@ -70,7 +139,7 @@ int setup_server() {
         return -1;
     }
 
-    if (listen(server_fd, 1) < 0) {
+    if (listen(server_fd, MAX_CLIENTS) < 0) {
         perror("listen");
         close(server_fd);
         return -1;
@@ -79,61 +148,413 @@ int setup_server() {
     return server_fd;
 }
 
-void stream_mjpeg(int client_fd, int dev_fd, int frame_size) {
-    char http_hdr[] =
-        "HTTP/1.1 200 OK\r\n"
-        "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n\r\n";
-    send(client_fd, http_hdr, strlen(http_hdr), MSG_NOSIGNAL);
+int setup_unix_server(const char *path) {
+    int server_fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (server_fd < 0) {
+        perror("socket");
+        return -1;
+    }
 
-    unsigned char *frame = malloc(frame_size);
-    char header[128];
+    struct sockaddr_un addr = {0};
+    addr.sun_family = AF_UNIX;
+    if (strlen(path) >= sizeof(addr.sun_path)) {
+        fprintf(stderr, "Unix socket path too long: %s\n", path);
+        close(server_fd);
+        return -1;
+    }
+    strcpy(addr.sun_path, path);
+    unlink(path); // left behind by a previous run
 
-    while (1) {
-        int n = read(dev_fd, frame, frame_size);
-        if (n <= 0) break;
+    if (bind(server_fd, (struct sockaddr *)&addr, sizeof(addr)) < 0) {
+        perror("bind");
+        close(server_fd);
+        return -1;
+    }
 
-        int header_len = snprintf(header, sizeof(header),
-                                  "--frame\r\n"
-                                  "Content-Type: image/jpeg\r\n"
-                                  "Content-Length: %d\r\n\r\n",
-                                  n);
+    if (listen(server_fd, MAX_CLIENTS) < 0) {
+        perror("listen");
+        close(server_fd);
+        return -1;
+    }
+
+    return server_fd;
+}
+
+uint64_t now_millis(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_REALTIME, &ts);
+    return (uint64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
 
-        if (send(client_fd, header, header_len, MSG_NOSIGNAL) <= 0) break;
-        if (send(client_fd, frame, n, MSG_NOSIGNAL) <= 0) break;
-        if (send(client_fd, "\r\n", 2, MSG_NOSIGNAL) <= 0) break;
+// Builds a new ring next to path and renames it over path, so readers of an
+// older ring never see it shrink and reconnect to this one
+struct ring *ring_open(const char *path, size_t max_frame_size) {
+    uint32_t slot_size = ((uint32_t)max_frame_size + 63) & ~63u;
+    size_t slot_stride = sizeof(struct ring_slot) + slot_size;
+    size_t ring_size = sizeof(struct ring_header) + RING_SLOTS * slot_stride;
+
+    char temp_path[256];
+    if (snprintf(temp_path, sizeof(temp_path), "%s.tmp", path) >= (int)sizeof(temp_path)) {
+        fprintf(stderr, "Ring path too long: %s\n", path);
+        return NULL;
+    }
+    int fd = open(temp_path, O_RDWR | O_CREAT | O_TRUNC, 0644);
+    if (fd < 0) {
+        perror("open ring");
+        return NULL;
+    }
+    if (ftruncate(fd, ring_size) < 0) {
+        perror("ftruncate ring");
+        close(fd);
+        return NULL;
+    }
+    unsigned char *base = mmap(NULL, ring_size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (base == MAP_FAILED) {
+        perror("mmap ring");
+        return NULL;
+    }
 
-        usleep(33333); // ~30 FPS
+    struct ring_header *header = (struct ring_header *)base;
+    memcpy(header->magic, RING_MAGIC, 4);
+    header->slot_count = RING_SLOTS;
+    header->slot_size = slot_size;
+    __atomic_store_n(&header->version, RING_VERSION, __ATOMIC_RELEASE);
+    if (rename(temp_path, path) < 0) {
+        perror("rename ring");
+        munmap(base, ring_size);
+        return NULL;
     }
 
-    free(frame);
-    close(client_fd);
-    printf("Client disconnected\n");
+    struct ring *ring = calloc(1, sizeof(*ring));
+    if (!ring) {
+        munmap(base, ring_size);
+        return NULL;
+    }
+    ring->base = base;
+    ring->size = ring_size;
+    ring->slot_stride = slot_stride;
+    ring->slot_size = slot_size;
+    printf("Writing frames to ring %s (%d slots of %u bytes)\n", path, RING_SLOTS, slot_size);
+    return ring;
+}
+
+void ring_publish(struct ring *ring, const unsigned char *data, size_t length) {
+    if (length > ring->slot_size) {
+        fprintf(stderr, "Frame of %zu bytes does not fit a ring slot\n", length);
+        return;
+    }
+    uint64_t n = ring->published;
+    struct ring_slot *slot = (struct ring_slot *)(ring->base + sizeof(struct ring_header) + (n % RING_SLOTS) * ring->slot_stride);
+    uint32_t lock = slot->lock;
+
+    // Odd while the slot is being written
+    __atomic_store_n(&slot->lock, lock + 1, __ATOMIC_RELAXED);
+    __atomic_thread_fence(__ATOMIC_RELEASE);
+    memcpy(slot + 1, data, length);
+    slot->length = length;
+    slot->frame_sequence = n;
+    slot->timestamp_ms = now_millis();
+    __atomic_store_n(&slot->lock, lock + 2, __ATOMIC_RELEASE);
+
+    ring->published = n + 1;
+    __atomic_store_n(&((struct ring_header *)ring->base)->published, ring->published, __ATOMIC_RELEASE);
+}
+
+void frame_release(struct frame *frame) {
+    if (frame && --frame->refs == 0) {
+        free(frame);
+    }
 }
 
-int main() {
+// Sets the client up to write frame, with the part header or length prefix its framing needs
+void client_start(struct client *client, struct frame *frame) {
+    client->sending = frame;
+    client->sent = 0;
+    if (client->framing == FRAMING_HTTP) {
+        client->prefix_length = snprintf((char *)client->prefix, sizeof(client->prefix),
+                                         "--frame\r\n"
+                                         "Content-Type: image/jpeg\r\n"
+                                         "Content-Length: %zu\r\n\r\n",
+                                         frame->length);
+    } else {
+        uint32_t n = frame->length;
+        client->prefix[0] = n >> 24;
+        client->prefix[1] = n >> 16;
+        client->prefix[2] = n >> 8;
+        client->prefix[3] = n;
+        client->prefix_length = 4;
+    }
+}
+
+// Writes as much as the socket takes, moving on to the waiting frame when one is
+// done. Returns -1 when the client has to go.
+int client_flush(struct client *client) {
+    while (client->sending) {
+        struct frame *frame = client->sending;
+        struct iovec parts[3] = {
+            {client->prefix, client->prefix_length},
+            {frame->data, frame->length},
+            {"\r\n", client->framing == FRAMING_HTTP ? 2 : 0},
+        };
+        size_t total = parts[0].iov_len + parts[1].iov_len + parts[2].iov_len;
+
+        // Skip what earlier writes already sent
+        struct iovec *iov = parts;
+        int iovcnt = 3;
+        size_t skip = client->sent;
+        while (iovcnt > 0 && skip >= iov->iov_len) {
+            skip -= iov->iov_len;
+            iov++;
+            iovcnt--;
+        }
+        iov->iov_base = (char *)iov->iov_base + skip;
+        iov->iov_len -= skip;
+
+        ssize_t n = writev(client->fd, iov, iovcnt);
+        if (n < 0) {
+            return errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR ? 0 : -1;
+        }
+        client->sent += n;
+        if (client->sent == total) {
+            frame_release(frame);
+            client->sending = NULL;
+            if (client->waiting) {
+                client_start(client, client->waiting);
+                client->waiting = NULL;
+            }
+        }
+    }
+    return 0;
+}
+
+// Hands the client a new frame: written now if it is idle, otherwise it replaces
+// whatever frame was still waiting
+int client_offer(struct client *client, struct frame *frame) {
+    frame->refs++;
+    if (client->sending) {
+        frame_release(client->waiting);
+        client->waiting = frame;
+        return 0;
+    }
+    client_start(client, frame);
+    return client_flush(client);
+}
+
+void client_close(struct client *client) {
+    close(client->fd);
+    frame_release(client->sending);
+    frame_release(client->waiting);
+    client->fd = -1;
+    client->sending = NULL;
+    client->waiting = NULL;
+    client_count--;
+    printf("Client disconnected (%d connected)\n", client_count);
+}
+
+void accept_client(int epoll_fd, int listen_fd, int framing) {
+    int fd = accept(listen_fd, NULL, NULL);
+    if (fd < 0) return;
+
+    int slot = -1;
+    for (int i = 0; i < MAX_CLIENTS && slot < 0; i++) {
+        if (clients[i].fd < 0) slot = i;
+    }
+    if (slot < 0) {
+        fprintf(stderr, "Refusing client, %d already connected\n", MAX_CLIENTS);
+        close(fd);
+        return;
+    }
+
+    // The preamble goes out while the socket buffer is still empty
+    const char *preamble = framing == FRAMING_HTTP ? HTTP_RESPONSE : UNIX_STREAM_MAGIC;
+    size_t preamble_length = strlen(preamble);
+    if (send(fd, preamble, preamble_length, MSG_NOSIGNAL) != (ssize_t)preamble_length ||
+        fcntl(fd, F_SETFL, fcntl(fd, F_GETFL) | O_NONBLOCK) < 0) {
+        close(fd);
+        return;
+    }
+
+    struct epoll_event event = {0};
+    event.events = EPOLLIN | EPOLLOUT | EPOLLET;
+    event.data.u64 = slot;
+    if (epoll_ctl(epoll_fd, EPOLL_CTL_ADD, fd, &event) < 0) {
+        perror("epoll_ctl");
+        close(fd);
+        return;
+    }
+
+    clients[slot].fd = fd;
+    clients[slot].framing = framing;
+    client_count++;
+    printf("%s client connected (%d connected)\n", framing == FRAMING_HTTP ? "HTTP" : "Unix socket", client_count);
+}
+
+// Socket readiness of a connected client: requests are not parsed, input is only
+// drained so a closed connection is noticed
+void client_event(struct client *client, uint32_t events) {
+    if (events & (EPOLLERR | EPOLLHUP)) {
+        client_close(client);
+        return;
+    }
+    if (events & EPOLLIN) {
+        char discard[512];
+        ssize_t n;
+        while ((n = read(client->fd, discard, sizeof(discard))) > 0) {
+        }
+        if (n == 0 || (errno != EAGAIN && errno != EWOULDBLOCK && errno != EINTR)) {
+            client_close(client);
+            return;
+        }
+    }
+    if ((events & EPOLLOUT) && client_flush(client) < 0) {
+        client_close(client);
+    }
+}
+
+// Takes every frame the source has ready and passes it to the ring and the clients.
+// Returns -1 when the source failed.
+int pump_frames(struct frame_source *source, struct ring *ring) {
+    const unsigned char *data;
+    size_t length;
+    int result;
+    while ((result = source->next_frame(source, &data, &length)) > 0) {
+        if (ring) {
+            ring_publish(ring, data, length);
+        }
+        if (client_count > 0) {
+            struct frame *frame = malloc(sizeof(struct frame) + length);
+            if (frame) {
+                memcpy(frame->data, data, length);
+                frame->length = length;
+                frame->refs = 1;
+                for (int i = 0; i < MAX_CLIENTS; i++) {
+                    if (clients[i].fd >= 0 && client_offer(&clients[i], frame) < 0) {
+                        client_close(&clients[i]);
+                    }
+                }
+                frame_release(frame);
+            }
+        }
+        source->release_frame(source);
+    }
+    return result;
+}
+
+int epoll_add(int epoll_fd, int fd, uint64_t tag) {
+    struct epoll_event event = {0};
+    event.events = EPOLLIN;
+    event.data.u64 = tag;
+    return epoll_ctl(epoll_fd, EPOLL_CTL_ADD, fd, &event);
+}
+
+void usage(const char *program) {
+    fprintf(stderr,
+            "Usage: %s [-d device] [-f jpeg_dir [-s fps]] [-u unix_socket] [-r ring_file]\n"
+            "  -d  V4L2 device to capture from (default %s)\n"
+            "  -f  replay the JPEG files of a directory instead of capturing\n"
+            "  -s  replay rate in frames per second (default 30)\n"
+            "  -u  Unix socket path (default %s)\n"
+            "  -r  also write every frame to a shared-memory ring file\n",
+            program, DEVICE, UNIX_SOCKET_PATH);
+}
+
+int main(int argc, char **argv) {
     signal(SIGPIPE, SIG_IGN);
+    setvbuf(stdout, NULL, _IOLBF, 0); // keeps nohup.out current
+
+    const char *device = DEVICE;
+    const char *replay_dir = NULL;
+    const char *unix_path = UNIX_SOCKET_PATH;
+    const char *ring_path = NULL;
+    int replay_fps = 30;
+    int option;
+    while ((option = getopt(argc, argv, "d:f:s:u:r:h")) != -1) {
+        switch (option) {
+            case 'd': device = optarg; break;
+            case 'f': replay_dir = optarg; break;
+            case 's': replay_fps = atoi(optarg); break;
+            case 'u': unix_path = optarg; break;
+            case 'r': ring_path = optarg; break;
+            default: usage(argv[0]); return 2;
+        }
+    }
 
-    int frame_size;
-    int dev_fd = setup_device(DEVICE, &frame_size);
-    if (dev_fd < 0) return 1;
+    struct frame_source source;
+    int opened = replay_dir ? replay_source_open(&source, replay_dir, replay_fps)
+                            : v4l2_source_open(&source, device, FRAME_WIDTH, FRAME_HEIGHT);
+    if (opened < 0) return 1;
+
+    struct ring *ring = NULL;
+    if (ring_path && !(ring = ring_open(ring_path, source.max_frame_size))) {
+        source.close(&source);
+        return 1;
+    }
 
     int server_fd = setup_server();
     if (server_fd < 0) {
-        close(dev_fd);
+        source.close(&source);
+        return 1;
+    }
+
+    // Without the Unix socket the server still streams over HTTP
+    int unix_fd = setup_unix_server(unix_path);
+
+    int epoll_fd = epoll_create1(0);
+    if (epoll_fd < 0 || epoll_add(epoll_fd, source.fd, TAG_SOURCE) < 0 ||
+        epoll_add(epoll_fd, server_fd, TAG_HTTP_LISTENER) < 0 ||
+        (unix_fd >= 0 && epoll_add(epoll_fd, unix_fd, TAG_UNIX_LISTENER) < 0)) {
+        perror("epoll");
         return 1;
     }
+    for (int i = 0; i < MAX_CLIENTS; i++) {
+        clients[i].fd = -1;
+    }
 
     printf("Streaming on http://localhost:%d\n", PORT);
+    if (unix_fd >= 0) {
+        printf("Streaming on unix:%s\n", unix_path);
+    }
 
-    while (1) {
-        int client_fd = accept(server_fd, NULL, NULL);
-        if (client_fd >= 0) {
-            printf("Client connected\n");
-            stream_mjpeg(client_fd, dev_fd, frame_size);
+    struct epoll_event events[MAX_CLIENTS + 3];
+    int running = 1;
+    while (running) {
+        int ready = epoll_wait(epoll_fd, events, MAX_CLIENTS + 3, -1);
+        if (ready < 0) {
+            if (errno == EINTR) continue;
+            perror("epoll_wait");
+            break;
+        }
+        for (int i = 0; i < ready; i++) {
+            uint64_t tag = events[i].data.u64;
+            if (tag == TAG_SOURCE) {
+                if (pump_frames(&source, ring) < 0) {
+                    fprintf(stderr, "Frame source failed, exiting\n");
+                    running = 0;
+                }
+            } else if (tag == TAG_HTTP_LISTENER) {
+                accept_client(epoll_fd, server_fd, FRAMING_HTTP);
+            } else if (tag == TAG_UNIX_LISTENER) {
+                accept_client(epoll_fd, unix_fd, FRAMING_LENGTH);
+            } else if (clients[tag].fd >= 0) {
+                client_event(&clients[tag], events[i].events);
+            }
         }
     }
 
-    close(dev_fd);
+    for (int i = 0; i < MAX_CLIENTS; i++) {
+        if (clients[i].fd >= 0) client_close(&clients[i]);
+    }
+    source.close(&source);
     close(server_fd);
-    return 0;
+    if (unix_fd >= 0) {
+        close(unix_fd);
+        unlink(unix_path);
+    }
+    if (ring) {
+        munmap(ring->base, ring->size);
+        free(ring);
+    }
+    close(epoll_fd);
+    return 1;
 }
@@ -0,0 +1,145 @@
+#define _DEFAULT_SOURCE
+
+#include <dirent.h>
+#include <errno.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <strings.h>
+#include <sys/timerfd.h>
+#include <unistd.h>
+
+#include "frame_source.h"
+
+/*
+    Stands in for the camera: loads the .jpg/.jpeg files of a directory, in
+    name order, and hands out one per tick of a timerfd, looping forever.
+    A tick that was missed is skipped, like a camera frame nobody read.
+*/
+
+struct replay_state {
+    unsigned char **frames;
+    size_t *lengths;
+    size_t count;
+    size_t next;
+};
+
+static int is_jpeg(const struct dirent *entry) {
+    const char *dot = strrchr(entry->d_name, '.');
+    return dot && (strcasecmp(dot, ".jpg") == 0 || strcasecmp(dot, ".jpeg") == 0);
+}
+
+static int replay_next_frame(struct frame_source *source, const unsigned char **data, size_t *length) {
+    struct replay_state *state = source->state;
+    uint64_t ticks;
+    if (read(source->fd, &ticks, sizeof(ticks)) != sizeof(ticks)) {
+        return errno == EAGAIN ? 0 : -1;
+    }
+    *data = state->frames[state->next];
+    *length = state->lengths[state->next];
+    state->next = (state->next + 1) % state->count;
+    return 1;
+}
+
+static void replay_release_frame(struct frame_source *source) {
+    (void)source; // the frames live as long as the source
+}
+
+static void replay_free(struct replay_state *state) {
+    for (size_t i = 0; i < state->count; i++) {
+        free(state->frames[i]);
+    }
+    free(state->frames);
+    free(state->lengths);
+    free(state);
+}
+
+static void replay_close(struct frame_source *source) {
+    replay_free(source->state);
+    close(source->fd);
+}
+
+// Reads a whole file into a new buffer, NULL on error
+static unsigned char *read_file(const char *path, size_t *length) {
+    FILE *file = fopen(path, "rb");
+    if (!file) {
+        perror(path);
+        return NULL;
+    }
+    unsigned char *data = NULL;
+    if (fseek(file, 0, SEEK_END) == 0) {
+        long size = ftell(file);
+        if (size > 0 && fseek(file, 0, SEEK_SET) == 0 && (data = malloc(size))) {
+            if (fread(data, 1, size, file) == (size_t)size) {
+                *length = size;
+            } else {
+                free(data);
+                data = NULL;
+            }
+        }
+    }
+    fclose(file);
+    return data;
+}
+
+int replay_source_open(struct frame_source *source, const char *dir, int fps) {
+    if (fps <= 0) fps = 30;
+    struct dirent **entries;
+    int entry_count = scandir(dir, &entries, is_jpeg, alphasort);
+    if (entry_count < 0) {
+        perror(dir);
+        return -1;
+    }
+
+    struct replay_state *state = calloc(1, sizeof(*state));
+    if (state) {
+        state->frames = calloc(entry_count, sizeof(*state->frames));
+        state->lengths = calloc(entry_count, sizeof(*state->lengths));
+    }
+    size_t max_frame_size = 0;
+    int failed = !state || !state->frames || !state->lengths;
+    for (int i = 0; i < entry_count; i++) {
+        if (!failed) {
+            char path[4096];
+            snprintf(path, sizeof(path), "%s/%s", dir, entries[i]->d_name);
+            size_t length;
+            unsigned char *data = read_file(path, &length);
+            if (data) {
+                state->frames[state->count] = data;
+                state->lengths[state->count] = length;
+                state->count++;
+                if (length > max_frame_size) max_frame_size = length;
+            }
+        }
+        free(entries[i]);
+    }
+    free(entries);
+
+    if (!failed && state->count == 0) {
+        fprintf(stderr, "No JPEG files to replay in %s\n", dir);
+        failed = 1;
+    }
+    int fd = failed ? -1 : timerfd_create(CLOCK_MONOTONIC, TFD_NONBLOCK);
+    if (fd < 0) {
+        if (!failed) perror("timerfd_create");
+        if (state) replay_free(state);
+        return -1;
+    }
+
+    long interval_ns = 1000000000L / fps;
+    struct itimerspec timer = {0};
+    timer.it_interval.tv_sec = interval_ns / 1000000000L;
+    timer.it_interval.tv_nsec = interval_ns % 1000000000L;
+    timer.it_value = timer.it_interval;
+    timerfd_settime(fd, 0, &timer, NULL);
+
+    printf("Replaying %zu JPEGs from %s at %d fps\n", state->count, dir, fps);
+    source->fd = fd;
+    source->max_frame_size = max_frame_size;
+    source->next_frame = replay_next_frame;
+    source->release_frame = replay_release_frame;
+    source->close = replay_close;
+    source->state = state;
+    return 0;
+}
@@ -0,0 +1,161 @@
+#define _DEFAULT_SOURCE
+
+#include <errno.h>
+#include <fcntl.h>
+#include <linux/videodev2.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <sys/mman.h>
+#include <unistd.h>
+
+#include "frame_source.h"
+
+#define V4L2_BUFFER_COUNT 4
+#define V4L2_MAX_BUFFERS 32
+
+/*
+    V4L2 streaming I/O: the driver fills V4L2_BUFFER_COUNT mmap'ed buffers in
+    turn and the device fd turns readable whenever one is complete, so frames
+    arrive at the camera's own rate. A dequeued buffer is queued again as soon
+    as the server has copied the frame out.
+*/
+
+struct v4l2_state {
+    void *starts[V4L2_MAX_BUFFERS];
+    size_t lengths[V4L2_MAX_BUFFERS];
+    unsigned int count;
+    struct v4l2_buffer current;
+    int holding;
+};
+
+static int xioctl(int fd, unsigned long request, void *arg) {
+    int result;
+    do {
+        result = ioctl(fd, request, arg);
+    } while (result < 0 && errno == EINTR);
+    return result;
+}
+
+static int v4l2_next_frame(struct frame_source *source, const unsigned char **data, size_t *length) {
+    struct v4l2_state *state = source->state;
+    memset(&state->current, 0, sizeof(state->current));
+    state->current.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    state->current.memory = V4L2_MEMORY_MMAP;
+    if (xioctl(source->fd, VIDIOC_DQBUF, &state->current) < 0) {
+        if (errno == EAGAIN) return 0;
+        perror("VIDIOC_DQBUF");
+        return -1;
+    }
+    state->holding = 1;
+    *data = state->starts[state->current.index];
+    *length = state->current.bytesused;
+    return 1;
+}
+
+static void v4l2_release_frame(struct frame_source *source) {
+    struct v4l2_state *state = source->state;
+    if (!state->holding) return;
+    state->holding = 0;
+    if (xioctl(source->fd, VIDIOC_QBUF, &state->current) < 0) {
+        perror("VIDIOC_QBUF");
+    }
+}
+
+static void v4l2_unmap(struct v4l2_state *state) {
+    for (unsigned int i = 0; i < state->count; i++) {
+        munmap(state->starts[i], state->lengths[i]);
+    }
+    free(state);
+}
+
+static void v4l2_close(struct frame_source *source) {
+    enum v4l2_buf_type type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    xioctl(source->fd, VIDIOC_STREAMOFF, &type);
+    v4l2_unmap(source->state);
+    close(source->fd);
+}
+
+int v4l2_source_open(struct frame_source *source, const char *device, int width, int height) {
+    int fd = open(device, O_RDWR | O_NONBLOCK);
+    if (fd < 0) {
+        perror("open");
+        return -1;
+    }
+
+    struct v4l2_format fmt = {0};
+    fmt.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    fmt.fmt.pix.width = width;
+    fmt.fmt.pix.height = height;
+    fmt.fmt.pix.pixelformat = V4L2_PIX_FMT_MJPEG;
+    fmt.fmt.pix.field = V4L2_FIELD_NONE;
+
+    if (xioctl(fd, VIDIOC_S_FMT, &fmt) < 0) {
+        perror("VIDIOC_S_FMT");
+        close(fd);
+        return -1;
+    }
+
+    struct v4l2_requestbuffers request = {0};
+    request.count = V4L2_BUFFER_COUNT;
+    request.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    request.memory = V4L2_MEMORY_MMAP;
+    if (xioctl(fd, VIDIOC_REQBUFS, &request) < 0) {
+        perror("VIDIOC_REQBUFS");
+        close(fd);
+        return -1;
+    }
+    if (request.count < 2 || request.count > V4L2_MAX_BUFFERS) {
+        fprintf(stderr, "%s granted %u streaming buffers\n", device, request.count);
+        close(fd);
+        return -1;
+    }
+
+    struct v4l2_state *state = calloc(1, sizeof(*state));
+    if (!state) {
+        close(fd);
+        return -1;
+    }
+    for (unsigned int i = 0; i < request.count; i++) {
+        struct v4l2_buffer buf = {0};
+        buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+        buf.memory = V4L2_MEMORY_MMAP;
+        buf.index = i;
+        if (xioctl(fd, VIDIOC_QUERYBUF, &buf) < 0) {
+            perror("VIDIOC_QUERYBUF");
+            goto fail;
+        }
+        void *start = mmap(NULL, buf.length, PROT_READ | PROT_WRITE, MAP_SHARED, fd, buf.m.offset);
+        if (start == MAP_FAILED) {
+            perror("mmap");
+            goto fail;
+        }
+        state->starts[i] = start;
+        state->lengths[i] = buf.length;
+        state->count++;
+        if (xioctl(fd, VIDIOC_QBUF, &buf) < 0) {
+            perror("VIDIOC_QBUF");
+            goto fail;
+        }
+    }
+
+    enum v4l2_buf_type type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    if (xioctl(fd, VIDIOC_STREAMON, &type) < 0) {
+        perror("VIDIOC_STREAMON");
+        goto fail;
+    }
+
+    source->fd = fd;
+    source->max_frame_size = fmt.fmt.pix.sizeimage;
+    source->next_frame = v4l2_next_frame;
+    source->release_frame = v4l2_release_frame;
+    source->close = v4l2_close;
+    source->state = state;
+    return 0;
+
+fail:
+    v4l2_unmap(state);
+    close(fd);
+    return -1;
+}
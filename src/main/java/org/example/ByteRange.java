@@ -0,0 +1,50 @@
+package org.example;
+
+// A single satisfiable byte range of a resource, parsed from a Range request header
+public record ByteRange(long start, long end) {
+    // Marks a well-formed Range header that no byte of the resource satisfies, answered with 416
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    // The requested range clamped to the resource, UNSATISFIABLE, or null when the header is
+    // absent, malformed or asks for several ranges, in which case the whole resource is served
+    public static ByteRange parse(String header, long resourceLength) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // "bytes=-N" is the last N bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || resourceLength == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, resourceLength - suffix), resourceLength - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= resourceLength) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, resourceLength - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
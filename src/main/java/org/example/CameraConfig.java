@@ -0,0 +1,66 @@
+package org.example;
+
+import java.io.File;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// One camera's relay pipeline settings, from a config line such as
+//   camera:front source=http://localhost:8081 device=/dev/video1 clips=./clips/front
+// Only source is required; the rest default to the global settings, made unique per camera.
+// A source of unix:/path reads the C server's Unix socket, with fallback=URL tried when it can't be reached.
+// motion_zones=L,T,W,H;... replaces the global motion_zone entries for this camera, null keeps them.
+public record CameraConfig(String name, String sourceUrl, String devicePath, String clipsDir,
+                           String ffmpegLogFile, String catalogFile, String fallbackUrl,
+                           List<MotionZone> motionZones) {
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    public static CameraConfig parse(String spec, String defaultDevicePath, String defaultClipsDir,
+                                     String defaultFfmpegLogFile, String defaultCatalogFile) {
+        String[] tokens = spec.trim().split("\\s+");
+        String name = tokens[0];
+        if (!NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid camera '" + spec + "', the name may only use letters, digits, '-' and '_'");
+        }
+        String sourceUrl = null;
+        String devicePath = defaultDevicePath;
+        String clipsDir = defaultClipsDir + "/" + name;
+        String ffmpegLogFile = withNameSuffix(defaultFfmpegLogFile, name);
+        String catalogFile = withNameSuffix(defaultCatalogFile, name);
+        String fallbackUrl = null;
+        List<MotionZone> motionZones = null;
+        for (int i = 1; i < tokens.length; i++) {
+            String[] keyAndValue = tokens[i].split("=", 2);
+            if (keyAndValue.length != 2) {
+                throw new IllegalArgumentException("Invalid camera '" + spec + "', expected key=value after the name");
+            }
+            switch (keyAndValue[0]) {
+                case "source" -> sourceUrl = keyAndValue[1];
+                case "device" -> devicePath = keyAndValue[1];
+                case "clips" -> clipsDir = keyAndValue[1];
+                case "ffmpeg_log" -> ffmpegLogFile = keyAndValue[1];
+                case "catalog" -> catalogFile = keyAndValue[1];
+                case "fallback" -> fallbackUrl = keyAndValue[1];
+                case "motion_zones" -> motionZones = MotionZone.parseList(keyAndValue[1]);
+                default -> throw new IllegalArgumentException("Invalid camera '" + spec + "', unknown setting " + keyAndValue[0]);
+            }
+        }
+        if (sourceUrl == null) {
+            throw new IllegalArgumentException("Invalid camera '" + spec + "', source=URL is required");
+        }
+        return new CameraConfig(name, sourceUrl, devicePath, clipsDir, ffmpegLogFile, catalogFile, fallbackUrl,
+                motionZones);
+    }
+
+    public CameraConfig withSourceUrl(String url) {
+        return new CameraConfig(name, url, devicePath, clipsDir, ffmpegLogFile, catalogFile, fallbackUrl, motionZones);
+    }
+
+    // ./ffmpeg.log becomes ./ffmpeg-front.log, so cameras never share a log or catalog file
+    static String withNameSuffix(String path, String name) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf(File.separatorChar) + 1) {
+            return path + "-" + name;
+        }
+        return path.substring(0, dot) + "-" + name + path.substring(dot);
+    }
+}
@@ -0,0 +1,675 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Everything one camera needs: the broadcaster reading its source stream, the ring and hubs
+// its viewers subscribe to, its stream profiles, dedup stage, FFmpeg recorder and clip
+// catalog. The HTTP server, NIO engine, executor and frame buffer pool are shared by all
+// cameras and belong to JServer.
+public class CameraPipeline {
+    private final String name;
+    private final String sourceUrl;
+    private final String fallbackUrl;
+    private final String devicePath;
+    private final String clipsDir;
+    private final String ffmpegLogPath;
+    private final File ffmpegLogFile;
+
+    private final FrameBufferPool framePool;
+    private final FrameRingBuffer frameBuffer;
+    private final FrameHub sourceHub;
+    private final Map<String, ProfileTranscoder> transcoders = new LinkedHashMap<>();
+    private final FrameDeduplicator deduplicator;
+    private final ClipCatalog clipCatalog;
+    private Thread broadcasterThread;
+    private final LongAdder sourceFrames = new LongAdder();
+    private volatile boolean sourceConnected = false;
+    private volatile String activeSourceUrl;
+
+    // Stall watchdog and reconnect backoff
+    private final long stallTimeoutMillis;
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+    private final long staleFrameIntervalMillis;
+    private final LongAdder sourceStalls = new LongAdder();
+    private volatile long lastFrameNanos = System.nanoTime();
+    private volatile long lastProgressNanos = System.nanoTime(); // last frame or (re)connect
+    private volatile Closeable sourceConnection; // closing it fails the broadcaster's blocked read
+    private volatile boolean stallDetected = false;
+    private long lastStaleResendNanos = System.nanoTime(); // watchdog thread only
+
+    // Source rate over the last whole second. Only this camera's broadcaster updates the window,
+    // on its own monotonic clock, so the frame path stays lock-free; the results are volatile.
+    private long rateWindowStartNanos = System.nanoTime();
+    private long rateWindowFrames = 0;
+    private long rateWindowBytes = 0;
+    private volatile long sourceFramesPerSecond = 0;
+    private volatile long sourceBytesPerSecond = 0;
+
+    private final boolean mjpegRecording;
+    private final PreEventBuffer preEvent; // null when pre_event_seconds is 0
+    private final MotionDetector motionDetector; // null when motion_detection is off
+    private final boolean motionRecording;
+    private boolean recordingForMotion = false; // guarded by this
+    private volatile MjpegSegmentRecorder segmentRecorder;
+    private volatile boolean isRecording = false;
+    private Process recordingProcess = null;
+    private volatile Process stoppedRecordingProcess = null;
+    private volatile long recordingStartTimeMillis = -1;
+    private volatile boolean toResetCameraStream = false;
+    private long nextFrameSequence = 0;
+
+    public CameraPipeline(CameraConfig camera, Config config, FrameBufferPool framePool) {
+        this.name = camera.name();
+        this.sourceUrl = camera.sourceUrl();
+        this.fallbackUrl = camera.fallbackUrl();
+        this.devicePath = camera.devicePath();
+        this.clipsDir = camera.clipsDir();
+        this.ffmpegLogPath = camera.ffmpegLogFile();
+        this.framePool = framePool;
+        this.frameBuffer = new FrameRingBuffer(config.FRAME_BUFFER_SIZE());
+        this.sourceHub = new FrameHub("source", frameBuffer);
+        for (StreamProfile profile : config.STREAM_PROFILES()) {
+            transcoders.put(profile.name(), new ProfileTranscoder(profile, framePool));
+        }
+        this.deduplicator = new FrameDeduplicator(FrameDeduplicator.parseMode(config.FRAME_DEDUP_MODE()),
+                config.FRAME_DEDUP_KEEPALIVE_MS());
+        this.stallTimeoutMillis = config.SOURCE_STALL_TIMEOUT_MS();
+        this.reconnectMinMillis = config.SOURCE_RECONNECT_MIN_MS();
+        this.reconnectMaxMillis = config.SOURCE_RECONNECT_MAX_MS();
+        this.staleFrameIntervalMillis = config.STALE_FRAME_INTERVAL_MS();
+        this.mjpegRecording = "mjpeg".equals(config.RECORDING_MODE());
+        if (config.PRE_EVENT_SECONDS() > 0) {
+            // Room for 60 fps over the window, the byte cap is what normally bounds it
+            this.preEvent = new PreEventBuffer(config.PRE_EVENT_SECONDS() * 1000L,
+                    config.PRE_EVENT_MAX_MB() * 1024 * 1024, Math.max(16, config.PRE_EVENT_SECONDS() * 60));
+        } else {
+            this.preEvent = null;
+        }
+        if (!"off".equals(config.MOTION_DETECTION())) {
+            this.motionDetector = new MotionDetector(name, config.MOTION_FRAME_INTERVAL(), config.MOTION_PIXEL_THRESHOLD(),
+                    config.MOTION_MIN_AREA_PERCENT(), config.MOTION_COOLDOWN_SECONDS() * 1000L,
+                    camera.motionZones() != null ? camera.motionZones() : config.MOTION_ZONES(),
+                    new MotionDetector.Listener() {
+                        @Override
+                        public void motionStarted(MotionEvent event) {
+                            onMotionStarted();
+                        }
+
+                        @Override
+                        public void motionEnded(MotionEvent event) {
+                            onMotionEnded();
+                        }
+                    });
+        } else {
+            this.motionDetector = null;
+        }
+        this.motionRecording = "record".equals(config.MOTION_DETECTION());
+
+        new File(clipsDir).mkdirs();
+        this.clipCatalog = new ClipCatalog(clipsDir, camera.catalogFile());
+        this.ffmpegLogFile = new File(ffmpegLogPath);
+        try {
+            if (!ffmpegLogFile.exists()) {
+                ffmpegLogFile.createNewFile();
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not create FFmpeg log file at " + ffmpegLogPath + ": " + e.getMessage());
+        }
+
+        System.out.println("Camera '" + name + "': source " + sourceUrl +
+                (fallbackUrl != null ? " (fallback " + fallbackUrl + ")" : "") + ", device " + devicePath +
+                ", clips " + clipsDir + ", FFmpeg log " + ffmpegLogPath + ", catalog " + camera.catalogFile());
+    }
+
+    public void start() throws IOException {
+        // The broadcaster gets its own platform thread, it must never wait for a carrier
+        broadcasterThread = Thread.ofPlatform().name("relay-broadcaster-" + name).start(this::broadcastFrames);
+        for (ProfileTranscoder transcoder : transcoders.values()) {
+            transcoder.start();
+        }
+        if (motionDetector != null) {
+            motionDetector.start();
+        }
+        clipCatalog.start();
+    }
+
+    public void stop() {
+        if (segmentRecorder != null) {
+            stopRecording();
+        }
+        clipCatalog.stop();
+        if (broadcasterThread != null) {
+            broadcasterThread.interrupt();
+        }
+        for (ProfileTranscoder transcoder : transcoders.values()) {
+            transcoder.stop();
+        }
+        if (motionDetector != null) {
+            motionDetector.stop();
+        }
+        for (FrameHub hub : hubs()) {
+            for (StreamSubscriber client : hub.getSubscribers()) {
+                client.close();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getClipsDir() {
+        return clipsDir;
+    }
+
+    public String getFfmpegLogPath() {
+        return ffmpegLogPath;
+    }
+
+    public FrameRingBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public ClipCatalog getClipCatalog() {
+        return clipCatalog;
+    }
+
+    // null when motion detection is off
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    public FrameDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public Collection<ProfileTranscoder> getTranscoders() {
+        return transcoders.values();
+    }
+
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    public long getRecordingStartTimeMillis() {
+        return recordingStartTimeMillis;
+    }
+
+    public boolean isSourceConnected() {
+        return sourceConnected;
+    }
+
+    public long getSourceFrames() {
+        return sourceFrames.sum();
+    }
+
+    public long getSourceStalls() {
+        return sourceStalls.sum();
+    }
+
+    public long getLastFrameAgeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFrameNanos);
+    }
+
+    // 0 once the source has gone quiet, the window only closes when a frame arrives
+    public long getSourceFramesPerSecond() {
+        return getLastFrameAgeMillis() < 2000 ? sourceFramesPerSecond : 0;
+    }
+
+    public long getSourceBytesPerSecond() {
+        return getLastFrameAgeMillis() < 2000 ? sourceBytesPerSecond : 0;
+    }
+
+    // True while viewers are only getting repeats of the last good frame
+    public boolean isSourceStale() {
+        return !sourceConnected || getLastFrameAgeMillis() > stallTimeoutMillis;
+    }
+
+    // Called by the watchdog: a connected source that has gone longer than the stall timeout
+    // without a whole frame is disconnected, which fails the broadcaster's blocked read so it
+    // reconnects. The read timeout alone would miss a source that trickles bytes but no frames.
+    public void checkStall() {
+        Closeable connection = sourceConnection;
+        long stalledMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgressNanos);
+        if (connection == null || stallDetected || stalledMillis <= stallTimeoutMillis) {
+            return;
+        }
+        stallDetected = true;
+        sourceStalls.increment();
+        RelayMetrics.SOURCE_STALLS.increment();
+        System.err.println("Camera '" + name + "': No frame from the source for " + stalledMillis +
+                " ms, forcing a reconnect.");
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Camera '" + name + "': Error closing stalled source: " + e.getMessage());
+        }
+    }
+
+    // Hub serving the requested stream profile, the full-rate source when none is given,
+    // or null for an unknown profile
+    public FrameHub resolveHub(String profile) {
+        if (profile == null || profile.isEmpty() || "full".equals(profile)) {
+            return sourceHub;
+        }
+        ProfileTranscoder transcoder = transcoders.get(profile);
+        return transcoder != null ? transcoder.getHub() : null;
+    }
+
+    public List<FrameHub> hubs() {
+        List<FrameHub> hubs = new ArrayList<>();
+        hubs.add(sourceHub);
+        for (ProfileTranscoder transcoder : transcoders.values()) {
+            hubs.add(transcoder.getHub());
+        }
+        return hubs;
+    }
+
+    // Drops the source connection, the broadcaster reconnects right away
+    public void requestReset() {
+        toResetCameraStream = true;
+    }
+
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("sourceUrl", sourceUrl);
+        stats.put("fallbackUrl", fallbackUrl);
+        stats.put("activeSourceUrl", activeSourceUrl);
+        stats.put("sourceConnected", sourceConnected);
+        stats.put("sourceFrames", sourceFrames.sum());
+        stats.put("sourceFramesPerSecond", getSourceFramesPerSecond());
+        stats.put("sourceStale", isSourceStale());
+        stats.put("lastFrameAgeMillis", getLastFrameAgeMillis());
+        stats.put("sourceStalls", sourceStalls.sum());
+        stats.put("recording", isRecording);
+        stats.put("recordingMode", mjpegRecording ? "mjpeg" : "ffmpeg");
+        MjpegSegmentRecorder recorder = segmentRecorder;
+        if (recorder != null) {
+            stats.put("recorder", recorder.toStatistics());
+        }
+        if (preEvent != null) {
+            stats.put("preEvent", preEvent.toStatistics());
+        }
+        if (motionDetector != null) {
+            stats.put("motion", motionDetector.toStatistics());
+        }
+        stats.put("recordingStartTimeMillis", recordingStartTimeMillis);
+        stats.put("clipCount", clipCatalog.size());
+        stats.put("clipBytes", clipCatalog.totalBytes());
+        stats.put("clipBytesFormatted", DiskStatistics.formatSize(clipCatalog.totalBytes()));
+        stats.put("streamClients", sourceHub.subscriberCount());
+        stats.put("frameDedup", deduplicator.toStatistics());
+        return stats;
+    }
+
+    // Starts the FFMPEG recording process, or in mjpeg mode the in-process segment recorder
+    public synchronized boolean startRecording() {
+        if (isRecording) {
+            return false;
+        }
+        if (mjpegRecording) {
+            // Published before it starts, so the broadcaster queues every frame after the pre-event ones
+            MjpegSegmentRecorder recorder = new MjpegSegmentRecorder(name, clipsDir, preEvent);
+            segmentRecorder = recorder;
+            recorder.start();
+            isRecording = true;
+            recordingStartTimeMillis = System.currentTimeMillis();
+            return true;
+        }
+
+        // Build the FFmpeg command
+        List<String> command = getFFMPEGCommand();
+
+        String commandString = String.join(" ", command);
+        System.out.println("Camera '" + name + "': Attempting to start recording: " + commandString);
+
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(new File("."));
+            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(ffmpegLogFile));
+            pb.redirectError(ProcessBuilder.Redirect.appendTo(ffmpegLogFile));
+
+            recordingProcess = pb.start();
+            isRecording = true;
+            recordingStartTimeMillis = System.currentTimeMillis();
+            RelayMetrics.FFMPEG_STARTS.increment();
+            System.out.println("Camera '" + name + "': Recording process started, output redirected to " + ffmpegLogPath);
+            if (preEvent != null) {
+                // FFmpeg reads the device itself, the buffered frames become a clip of their own
+                MjpegSegmentRecorder preEventRecorder = new MjpegSegmentRecorder(name, clipsDir, preEvent);
+                preEventRecorder.finish();
+                preEventRecorder.start();
+            }
+
+            Process process = recordingProcess;
+            Thread.ofPlatform().name("ffmpeg-monitor-" + name).daemon(true).start(() -> monitorRecordingProcess(process));
+
+            return true;
+
+        } catch (IOException e) {
+            System.err.println("Camera '" + name + "': Failed to start FFmpeg process: " + e.getMessage());
+            e.printStackTrace();
+            recordingProcess = null;
+            isRecording = false;
+            recordingStartTimeMillis = -1;
+            return false;
+        }
+    }
+
+    private List<String> getFFMPEGCommand() {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-nostdin");
+        command.add("-f");
+        command.add("v4l2");
+        command.add("-framerate");
+        command.add("30");
+        command.add("-video_size");
+        command.add("1280x720");
+        command.add("-i");
+        command.add(devicePath);
+
+        command.add("-c:v");
+        command.add("h264_v4l2m2m");
+
+        command.add("-crf");
+        command.add("0");
+        command.add("-pix_fmt");
+        command.add("yuv420p");
+        command.add("-b:v");
+        command.add("1M");
+
+        command.add("-f");
+        command.add("segment");
+        command.add("-reset_timestamps");
+        command.add("1");
+        command.add("-segment_time");
+        command.add(String.valueOf(MjpegSegmentRecorder.SEGMENT_SECONDS));
+        command.add("-segment_format");
+        command.add("mkv");
+        command.add("-segment_atclocktime");
+        command.add("1");
+        command.add("-strftime");
+        command.add("1");
+
+        command.add(clipsDir + "/%Y%m%dT%H%M%S.mkv");
+        return command;
+    }
+
+    // Stops the FFmpeg recording process or the segment recorder
+    public synchronized void stopRecording() {
+        recordingForMotion = false;
+        if (segmentRecorder != null) {
+            System.out.println("Camera '" + name + "': Stopping MJPEG recorder...");
+            segmentRecorder.stop();
+            segmentRecorder = null;
+            isRecording = false;
+        } else if (recordingProcess != null && recordingProcess.isAlive()) {
+            System.out.println("Camera '" + name + "': Stopping recording process...");
+            stoppedRecordingProcess = recordingProcess;
+
+            recordingProcess.destroyForcibly();
+        } else {
+            System.out.println("Camera '" + name + "': No active recording process to stop.");
+        }
+    }
+
+    // With motion_detection:record, motion starts a recording unless one is already running;
+    // a recording started by hand is never stopped by the detector
+    private synchronized void onMotionStarted() {
+        if (motionRecording && !isRecording && startRecording()) {
+            System.out.println("Camera '" + name + "': Recording started on motion");
+            recordingForMotion = true;
+        }
+    }
+
+    private synchronized void onMotionEnded() {
+        if (recordingForMotion) {
+            System.out.println("Camera '" + name + "': Motion over, stopping the recording it started");
+            stopRecording();
+        }
+    }
+
+    // Watches FFMPEG Thread process
+    private void monitorRecordingProcess(Process process) {
+        try {
+            int exitCode = process.waitFor();
+            System.out.println("Camera '" + name + "': FFMPEG Thread finished with exit code " + exitCode);
+
+            if (exitCode != 0 && process != stoppedRecordingProcess) {
+                RelayMetrics.FFMPEG_FAILURES.increment();
+            }
+            if (exitCode != 0) {
+                System.err.println("Camera '" + name + "': FFMPEG Thread exited with non-zero status (" + exitCode +
+                        "), indicating a potential error during recording.");
+                System.err.println("Check the log file " + ffmpegLogPath + " for FFmpeg errors.");
+            }
+
+        } catch (InterruptedException e) {
+            System.out.println("FFMPEG Thread monitor interrupted while waiting.");
+            Thread.currentThread().interrupt();
+        } finally {
+
+            synchronized (this) {
+                if (recordingProcess == process) {
+                    System.out.println("Camera '" + name + "': Resetting recording state.");
+                    isRecording = false;
+                    recordingProcess = null;
+                } else {
+                    System.out.println("Monitor finished for an older FFmpeg process instance.");
+                }
+            }
+        }
+    }
+
+    // Broadcaster thread only
+    private void countSourceRate(long nowNanos, int length) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(nowNanos - rateWindowStartNanos);
+        if (elapsedMillis >= 1000) {
+            boolean consecutive = elapsedMillis < 2000;
+            sourceFramesPerSecond = consecutive ? rateWindowFrames : 0;
+            sourceBytesPerSecond = consecutive ? rateWindowBytes : 0;
+            rateWindowStartNanos = nowNanos;
+            rateWindowFrames = 0;
+            rateWindowBytes = 0;
+        }
+        rateWindowFrames++;
+        rateWindowBytes += length;
+    }
+
+    // Reads frames from the source URL and broadcasts to connected clients
+    private void broadcastFrames() {
+        int failedAttempts = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            // Connect to C Server
+            boolean receivedFrames = false;
+            try (FrameSource reader = openSource()) {
+                deduplicator.reset();
+                Frame frame;
+
+                // Read whole frames from the source stream and broadcast them to all clients
+                while (!Thread.currentThread().isInterrupted() && !toResetCameraStream &&
+                        (frame = reader.readFrame(framePool, nextFrameSequence)) != null) {
+                    nextFrameSequence++;
+                    long now = System.nanoTime();
+                    RelayMetrics.SOURCE_FRAME_GAP_MILLIS.observe(TimeUnit.NANOSECONDS.toMillis(now - lastFrameNanos));
+                    lastFrameNanos = now;
+                    lastProgressNanos = now;
+                    receivedFrames = true;
+                    sourceFrames.increment();
+                    RelayMetrics.recordSourceFrame(frame);
+                    countSourceRate(now, frame.length());
+
+                    // A repeat of the last frame costs no client or transcoder work. Motion detection,
+                    // the pre-event buffer and the recorder still get every source frame.
+                    if (deduplicator.accept(frame, sourceHub.subscriberCount())) {
+                        // Only enqueue here, each client's own sender does the socket writes
+                        sourceHub.publish(frame);
+                        for (ProfileTranscoder transcoder : transcoders.values()) {
+                            transcoder.onSourceFrame(frame);
+                        }
+                    }
+                    if (motionDetector != null) {
+                        motionDetector.onFrame(frame);
+                    }
+                    if (preEvent != null) {
+                        preEvent.add(frame);
+                    }
+                    MjpegSegmentRecorder recorder = segmentRecorder;
+                    if (recorder != null) {
+                        recorder.onFrame(frame);
+                    }
+
+                    // Ring, clients, transcoders and the recorder hold their own references, the pre-event buffer a copy
+                    frame.release();
+                }
+                if (toResetCameraStream) {
+                    // A requested reset reconnects straight away
+                    failedAttempts = 0;
+                    receivedFrames = false;
+                }
+                toResetCameraStream = false;
+                System.out.println("Camera '" + name + "': Set Reset Camera to false");
+                System.out.println("Camera '" + name + "': Source stream ended.");
+            } catch (IOException e) {
+                System.err.println("Camera '" + name + "': Error reading source URL: " +
+                        (activeSourceUrl != null ? activeSourceUrl : sourceUrl) + " - " + e.getMessage());
+            } catch (Exception e) {
+                System.err.println("Camera '" + name + "': Unexpected error in broadcaster: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                sourceConnection = null;
+                sourceConnected = false;
+                activeSourceUrl = null;
+            }
+
+            // A connection that delivered frames resets the backoff, repeated failures grow it
+            failedAttempts = receivedFrames ? 0 : failedAttempts + 1;
+            try {
+                if (!Thread.currentThread().isInterrupted()) {
+                    long delayMillis = reconnectDelayMillis(failedAttempts);
+                    System.out.println("Camera '" + name + "': Attempting source reconnect in " + delayMillis + " ms...");
+                    RelayMetrics.SOURCE_RECONNECTS.increment();
+                    Thread.sleep(delayMillis);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                System.out.println("Broadcaster interrupted.");
+            }
+        }
+        System.out.println("Camera '" + name + "': Broadcaster thread exiting.");
+    }
+
+    // Connects to the source URL, or to the fallback when the source can't be reached. Each new
+    // connection starts from the primary again, so the relay moves back once it is up.
+    private FrameSource openSource() throws IOException {
+        try {
+            return connect(sourceUrl);
+        } catch (IOException e) {
+            if (fallbackUrl == null) {
+                throw e;
+            }
+            System.err.println("Camera '" + name + "': Source " + sourceUrl + " unavailable (" + e.getMessage() +
+                    "), trying fallback " + fallbackUrl);
+            try {
+                return connect(fallbackUrl);
+            } catch (IOException fallbackError) {
+                throw new IOException(e.getMessage() + ", fallback " + fallbackUrl + ": " + fallbackError.getMessage(),
+                        fallbackError);
+            }
+        }
+    }
+
+    // unix:/path reads the C server's length-prefixed frames from its Unix socket, shm:/path
+    // maps its frame ring, anything else is fetched as a multipart MJPEG stream
+    private FrameSource connect(String url) throws IOException {
+        if (url.startsWith("unix:")) {
+            UnixSocketFrameReader reader = UnixSocketFrameReader.connect(Path.of(url.substring("unix:".length())));
+            connected(url, reader);
+            return reader;
+        }
+        if (url.startsWith("shm:")) {
+            MappedFrameRingReader reader = MappedFrameRingReader.open(Path.of(url.substring("shm:".length())));
+            connected(url, reader);
+            return reader;
+        }
+        URLConnection connection = URI.create(url).toURL().openConnection();
+        // The read timeout is a backstop for a silent socket, the watchdog also catches trickling ones
+        connection.setConnectTimeout((int) stallTimeoutMillis);
+        connection.setReadTimeout((int) stallTimeoutMillis);
+        InputStream source = connection.getInputStream();
+        connected(url, connection instanceof HttpURLConnection http ? http::disconnect : source);
+        return new MjpegFrameReader(source);
+    }
+
+    private void connected(String url, Closeable connection) {
+        System.out.println("Camera '" + name + "': Source stream connected: " + url);
+        activeSourceUrl = url;
+        sourceConnected = true;
+        // Progress before the connection is visible, or the watchdog could judge it by the old one
+        lastProgressNanos = System.nanoTime();
+        stallDetected = false;
+        sourceConnection = connection;
+    }
+
+    // Exponential backoff from the minimum up to the maximum delay, with jitter so cameras
+    // that lost a shared upstream don't reconnect in lockstep. The first retry is immediate.
+    private long reconnectDelayMillis(int failedAttempts) {
+        if (failedAttempts == 0) {
+            return 0;
+        }
+        long ceiling = reconnectMinMillis << Math.min(failedAttempts - 1, 20);
+        ceiling = Math.min(Math.max(ceiling, reconnectMinMillis), reconnectMaxMillis);
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    // Called by the watchdog: once no frame has arrived for stale_frame_interval_ms, viewers
+    // get the last good frame of every hub again about that often, so their connections stay
+    // open and resume on the next real frame. That covers a source that is blocked in connect
+    // or read as well as the reconnect backoff.
+    public void serveStaleFrames() {
+        if (staleFrameIntervalMillis <= 0 || getLastFrameAgeMillis() < staleFrameIntervalMillis) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastStaleResendNanos < TimeUnit.MILLISECONDS.toNanos(staleFrameIntervalMillis)) {
+            return;
+        }
+        lastStaleResendNanos = now;
+        resendStaleFrames();
+    }
+
+    private void resendStaleFrames() {
+        long now = System.currentTimeMillis();
+        for (FrameHub hub : hubs()) {
+            if (hub.subscriberCount() == 0) {
+                continue;
+            }
+            Frame latest = hub.getFrames().retainLatest();
+            if (latest == null) {
+                continue;
+            }
+            Frame stale = latest.markedStale(now);
+            latest.release();
+            hub.resend(stale);
+            stale.release();
+        }
+    }
+}
@@ -1,14 +1,175 @@
 package org.example;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+// Clip retention. deleteFilesOlderThan is the manual, age-based cleanup behind /delete. An
+// instance runs scheduled retention over every camera's clips: while the clips together exceed
+// the size quota, or a clips directory's file system is below the free-space watermark, the
+// oldest segment is deleted. Sizes come from the clip catalogs' running totals, so a cycle
+// costs a few index lookups and statfs calls rather than a directory walk.
 public class CleanupManager {
+    // A segment written to this recently may still be open in FFmpeg
+    private static final long ACTIVE_SEGMENT_GRACE_MILLIS = 60_000;
+    // Oldest clips looked at per camera when the very oldest ones are protected
+    private static final int CANDIDATES_PER_CAMERA = 4;
+
+    private final List<CameraPipeline> cameras;
+    private final long maxClipsBytes;
+    private final long minFreeBytes;
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder deletedClips = new LongAdder();
+    private final LongAdder deletedBytes = new LongAdder();
+    private final LongAdder failedDeletes = new LongAdder();
+    private volatile long lastRunMillis = -1;
+    private volatile boolean stuck = false;
+
+    public CleanupManager(List<CameraPipeline> cameras, long maxClipsBytes, long minFreeBytes, long intervalMillis) {
+        this.cameras = cameras;
+        this.maxClipsBytes = maxClipsBytes;
+        this.minFreeBytes = minFreeBytes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public boolean isEnabled() {
+        return maxClipsBytes > 0 || minFreeBytes > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            System.out.println("CleanupManager: Retention disabled, no clip quota or free-space watermark set.");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("clip-retention").daemon(true).factory());
+        scheduler.scheduleWithFixedDelay(this::runCycle, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("CleanupManager: Retention every " + intervalMillis / 1000 + "s, quota " +
+                (maxClipsBytes > 0 ? DiskStatistics.formatSize(maxClipsBytes) : "none") + ", free-space watermark " +
+                (minFreeBytes > 0 ? DiskStatistics.formatSize(minFreeBytes) : "none"));
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void runCycle() {
+        try {
+            enforce();
+        } catch (RuntimeException e) {
+            // A thrown exception would cancel the schedule
+            System.err.println("CleanupManager: Retention cycle failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Deletes oldest segments until the quota and watermark hold or nothing deletable is left.
+    // Returns the number of clips deleted.
+    public int enforce() {
+        lastRunMillis = System.currentTimeMillis();
+        int deleted = 0;
+        while (true) {
+            long totalBytes = 0;
+            for (CameraPipeline camera : cameras) {
+                totalBytes += camera.getClipCatalog().totalBytes();
+            }
+            boolean overQuota = maxClipsBytes > 0 && totalBytes > maxClipsBytes;
+
+            // Over quota any camera's oldest clip will do; low on space only a clip on that file system helps
+            boolean shortfall = overQuota;
+            CameraPipeline victimCamera = null;
+            ClipInfo victim = null;
+            for (CameraPipeline camera : cameras) {
+                boolean lowOnSpace = minFreeBytes > 0 && new File(camera.getClipsDir()).getUsableSpace() < minFreeBytes;
+                if (!overQuota && !lowOnSpace) {
+                    continue;
+                }
+                shortfall = true;
+                ClipInfo candidate = oldestDeletable(camera);
+                if (candidate != null && (victim == null || candidate.startMillis() < victim.startMillis())) {
+                    victim = candidate;
+                    victimCamera = camera;
+                }
+            }
+            if (!shortfall) {
+                stuck = false;
+                return deleted;
+            }
+            if (victim == null) {
+                if (!stuck) {
+                    System.err.println("CleanupManager: Over the clip quota or free-space watermark, but only " +
+                            "segments that may still be recording are left.");
+                    stuck = true;
+                }
+                return deleted;
+            }
+
+            try {
+                long freed = victimCamera.getClipCatalog().delete(victim);
+                deleted++;
+                deletedClips.increment();
+                deletedBytes.add(freed);
+                System.out.println("CleanupManager: Retention deleted " + victimCamera.getName() + "/" + victim.name() +
+                        " (" + DiskStatistics.formatSize(freed) + ")" + (overQuota ? ", clips over quota" : ", low on free space"));
+            } catch (IOException e) {
+                failedDeletes.increment();
+                System.err.println("CleanupManager: Failed to delete " + victimCamera.getName() + "/" + victim.name() +
+                        ": " + e.getMessage());
+                return deleted;
+            }
+        }
+    }
+
+    // Oldest clip of the camera that is not the segment being recorded, or null
+    private static ClipInfo oldestDeletable(CameraPipeline camera) {
+        ClipCatalog catalog = camera.getClipCatalog();
+        String recordingSegment = null;
+        if (camera.isRecording()) {
+            List<ClipInfo> newest = catalog.query(0, Long.MAX_VALUE, 0, 1, true).clips();
+            recordingSegment = newest.isEmpty() ? null : newest.get(0).name();
+        }
+        long activeSince = System.currentTimeMillis() - ACTIVE_SEGMENT_GRACE_MILLIS;
+        for (ClipInfo clip : catalog.query(0, Long.MAX_VALUE, 0, CANDIDATES_PER_CAMERA, false).clips()) {
+            if (!clip.name().equals(recordingSegment) && clip.lastModifiedMillis() < activeSince) {
+                return clip;
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("maxClipsBytes", maxClipsBytes);
+        stats.put("minFreeBytes", minFreeBytes);
+        stats.put("deletedClips", deletedClips.sum());
+        stats.put("deletedBytes", deletedBytes.sum());
+        stats.put("failedDeletes", failedDeletes.sum());
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("onlyActiveSegmentsLeft", stuck);
+        return stats;
+    }
+
+    public long getDeletedClips() {
+        return deletedClips.sum();
+    }
+
+    public long getDeletedBytes() {
+        return deletedBytes.sum();
+    }
 
     public static int deleteFilesOlderThan(String dirPath, int days) {
         if (days < 0) {
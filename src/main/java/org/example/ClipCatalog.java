@@ -0,0 +1,445 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory index of the recorded clips, kept current from WatchService events instead of
+// listing the clips directory on every request. The index is saved to a small binary
+// snapshot so a restart can serve listings straight away; the directory is reconciled
+// against it in the background.
+public class ClipCatalog {
+    private static final int SNAPSHOT_MAGIC = 0x434c4950; // "CLIP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 30_000;
+    static final DateTimeFormatter SEGMENT_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final Comparator<ClipInfo> BY_START =
+            Comparator.comparingLong(ClipInfo::startMillis).thenComparing(ClipInfo::name);
+
+    private final Path clipsDir;
+    private final Path snapshotFile;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ClipInfo> byName = new HashMap<>();
+    private final NavigableSet<ClipInfo> byStart = new TreeSet<>(BY_START);
+    // Sizes of the MJPEG segments' .idx files, by index name. They are not clips, but they
+    // count towards the bytes retention manages.
+    private final Map<String, Long> sidecarSizes = new HashMap<>();
+    private long totalBytes = 0;
+    private boolean dirty = false;
+
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    public ClipCatalog(String clipsDir, String snapshotFile) {
+        this.clipsDir = Paths.get(clipsDir);
+        this.snapshotFile = Paths.get(snapshotFile);
+    }
+
+    public static boolean isClip(String name) {
+        return name.toLowerCase().endsWith(".mkv") || MjpegSegmentRecorder.isSegment(name);
+    }
+
+    // The frame index the recorder keeps next to each MJPEG segment
+    static boolean isSidecar(String name) {
+        return name.endsWith(MjpegSegmentRecorder.INDEX_EXTENSION);
+    }
+
+    public void start() throws IOException {
+        loadSnapshot();
+        // Register before reconciling so nothing that changes during the scan is missed
+        watchService = clipsDir.getFileSystem().newWatchService();
+        clipsDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watcherThread = Thread.ofPlatform().name("clip-catalog").daemon(true).start(this::watch);
+    }
+
+    public void stop() {
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+            if (watcherThread != null) {
+                watcherThread.join(2000);
+            }
+        } catch (IOException e) {
+            System.err.println("ClipCatalog: Failed to close watch service: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveSnapshotIfDirty();
+    }
+
+    private void watch() {
+        rescan();
+        long lastSnapshotMillis = System.currentTimeMillis();
+        try {
+            while (true) {
+                WatchKey key = watchService.poll(SNAPSHOT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    // A recording segment fires a modify event per write; refresh each name once per batch
+                    Set<String> changed = new HashSet<>();
+                    boolean overflow = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(event.context().toString());
+                        }
+                    }
+                    key.reset();
+                    if (overflow) {
+                        rescan();
+                    } else {
+                        for (String name : changed) {
+                            refresh(name);
+                        }
+                    }
+                }
+                if (System.currentTimeMillis() - lastSnapshotMillis >= SNAPSHOT_INTERVAL_MILLIS) {
+                    saveSnapshotIfDirty();
+                    lastSnapshotMillis = System.currentTimeMillis();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("ClipCatalog: Watcher exiting.");
+    }
+
+    // Re-reads one directory entry after a watch event
+    private void refresh(String name) {
+        boolean sidecar = isSidecar(name);
+        if (!sidecar && !isClip(name)) {
+            return;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(clipsDir.resolve(name), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                remove(name);
+            } else if (sidecar) {
+                putSidecar(name, attrs.size());
+            } else {
+                put(toClip(name, attrs));
+            }
+        } catch (NoSuchFileException e) {
+            remove(name);
+        } catch (IOException e) {
+            System.err.println("ClipCatalog: Failed to read " + name + ": " + e.getMessage());
+        }
+    }
+
+    // Brings the index in line with the directory, after startup or a lost watch event
+    private void rescan() {
+        Set<String> present = new HashSet<>();
+        Set<String> presentSidecars = new HashSet<>();
+        int updated = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(clipsDir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                boolean sidecar = isSidecar(name);
+                if (!sidecar && !isClip(name)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (!attrs.isRegularFile()) {
+                        continue;
+                    }
+                    if (sidecar) {
+                        presentSidecars.add(name);
+                        putSidecar(name, attrs.size());
+                        continue;
+                    }
+                    present.add(name);
+                    if (put(toClip(name, attrs))) {
+                        updated++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted while scanning
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("ClipCatalog: Failed to scan " + clipsDir + ": " + e.getMessage());
+            return;
+        }
+
+        int removed = 0;
+        for (String name : names()) {
+            if (!present.contains(name)) {
+                remove(name);
+                removed++;
+            }
+        }
+        for (String name : sidecarNames()) {
+            if (!presentSidecars.contains(name)) {
+                remove(name);
+            }
+        }
+        System.out.println("ClipCatalog: Indexed " + present.size() + " clips (" + updated + " updated, " +
+                removed + " removed).");
+    }
+
+    private ClipInfo toClip(String name, BasicFileAttributes attrs) {
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        long start = parseSegmentStart(name);
+        if (start < 0) {
+            start = attrs.creationTime().toMillis();
+        }
+        return new ClipInfo(name, attrs.size(), start, Math.max(0, lastModified - start), lastModified);
+    }
+
+    // Start of a segment named after the recorder's %Y%m%dT%H%M%S local time pattern, or -1
+    static long parseSegmentStart(String name) {
+        int dot = name.indexOf('.');
+        String base = dot >= 0 ? name.substring(0, dot) : name;
+        try {
+            return LocalDateTime.parse(base, SEGMENT_NAME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Returns true if the index changed
+    private boolean put(ClipInfo clip) {
+        lock.lock();
+        try {
+            ClipInfo previous = byName.put(clip.name(), clip);
+            if (clip.equals(previous)) {
+                return false;
+            }
+            if (previous != null) {
+                byStart.remove(previous);
+                totalBytes -= previous.size();
+            }
+            byStart.add(clip);
+            totalBytes += clip.size();
+            dirty = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putSidecar(String name, long size) {
+        lock.lock();
+        try {
+            Long previous = sidecarSizes.put(name, size);
+            totalBytes += size - (previous != null ? previous : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops a clip or a segment's index
+    private void remove(String name) {
+        lock.lock();
+        try {
+            Long sidecar = sidecarSizes.remove(name);
+            if (sidecar != null) {
+                totalBytes -= sidecar;
+            }
+            ClipInfo previous = byName.remove(name);
+            if (previous != null) {
+                byStart.remove(previous);
+                totalBytes -= previous.size();
+                dirty = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Deletes a clip's file and drops it from the index right away, without waiting for the
+    // watch event, so the running total is correct for the next decision. Returns the bytes freed,
+    // an MJPEG segment's .idx included.
+    public long delete(ClipInfo clip) throws IOException {
+        long freed = clip.size();
+        Files.deleteIfExists(clipsDir.resolve(clip.name()));
+        if (MjpegSegmentRecorder.isSegment(clip.name())) {
+            String indexName = MjpegSegmentRecorder.indexName(clip.name());
+            Path index = clipsDir.resolve(indexName);
+            try {
+                freed += Files.size(index);
+                Files.delete(index);
+            } catch (NoSuchFileException e) {
+                // Never written, or already gone
+            }
+            remove(indexName);
+        }
+        remove(clip.name());
+        return freed;
+    }
+
+    private List<String> sidecarNames() {
+        lock.lock();
+        try {
+            return new ArrayList<>(sidecarSizes.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<String> names() {
+        lock.lock();
+        try {
+            return new ArrayList<>(byName.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ClipInfo get(String name) {
+        lock.lock();
+        try {
+            return byName.get(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byName.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long totalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One page of the clips that overlap [fromMillis, toMillis), oldest or newest first
+    public Page query(long fromMillis, long toMillis, int offset, int limit, boolean newestFirst) {
+        lock.lock();
+        try {
+            // Clips are indexed by start, so anything starting before the window is checked for overlap
+            NavigableSet<ClipInfo> window = byStart.headSet(new ClipInfo("", 0, toMillis, 0, 0), false);
+            if (newestFirst) {
+                window = window.descendingSet();
+            }
+            List<ClipInfo> clips = new ArrayList<>(Math.min(limit, 1024));
+            int matched = 0;
+            for (ClipInfo clip : window) {
+                if (clip.endMillis() < fromMillis) {
+                    if (newestFirst) {
+                        // Segments don't overlap, so every older clip ends earlier still
+                        break;
+                    }
+                    continue;
+                }
+                if (matched >= offset && clips.size() < limit) {
+                    clips.add(clip);
+                }
+                matched++;
+            }
+            return new Page(clips, matched, offset, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public record Page(List<ClipInfo> clips, int total, int offset, int limit) {}
+
+    private void loadSnapshot() {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                System.err.println("ClipCatalog: Ignoring snapshot in an unknown format: " + snapshotFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                put(new ClipInfo(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            lock.lock();
+            try {
+                dirty = false;
+            } finally {
+                lock.unlock();
+            }
+            System.out.println("ClipCatalog: Loaded " + count + " clips from " + snapshotFile);
+        } catch (IOException e) {
+            System.err.println("ClipCatalog: Failed to load snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+    private void saveSnapshotIfDirty() {
+        List<ClipInfo> clips;
+        lock.lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            clips = new ArrayList<>(byStart);
+            dirty = false;
+        } finally {
+            lock.unlock();
+        }
+
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(clips.size());
+                for (ClipInfo clip : clips) {
+                    out.writeUTF(clip.name());
+                    out.writeLong(clip.size());
+                    out.writeLong(clip.startMillis());
+                    out.writeLong(clip.durationMillis());
+                    out.writeLong(clip.lastModifiedMillis());
+                }
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("ClipCatalog: Failed to save snapshot " + snapshotFile + ": " + e.getMessage());
+            lock.lock();
+            try {
+                dirty = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Cuts a wall-clock window out of a camera's recorded segments, as one file and without
+// re-encoding. The catalog finds the segments covering the window by their timestamped names.
+// MJPEG segments are cut at frame boundaries through their .idx files, and the frames in the
+// window are served as byte ranges of the segments. MKV segments are remuxed by an ffmpeg
+// concat with inpoint/outpoint, streamed from its stdout; with -c copy the cut starts at the
+// keyframe before the window.
+public class ClipExtractor {
+    // Longer windows are better served by downloading the segments themselves
+    public static final long MAX_WINDOW_MILLIS = 6 * 3600 * 1000L;
+
+    // The segments covering a window, all in the one format that is extracted
+    public record Plan(List<ClipInfo> clips, boolean mjpeg, long fromMillis, long toMillis) {}
+
+    // A stretch of one segment file, [start, end)
+    public record Range(Path file, long start, long end) {
+        public long length() {
+            return end - start;
+        }
+    }
+
+    // Null when nothing was recorded in the window. When it holds both formats, for example the
+    // pre-event .mjpeg clip ffmpeg mode writes before each recording, the MKV segments win.
+    public static Plan plan(ClipCatalog catalog, long fromMillis, long toMillis) {
+        List<ClipInfo> overlapping = catalog.query(fromMillis, toMillis, 0, Integer.MAX_VALUE, false).clips();
+        List<ClipInfo> mkv = new ArrayList<>();
+        List<ClipInfo> mjpeg = new ArrayList<>();
+        for (ClipInfo clip : overlapping) {
+            (MjpegSegmentRecorder.isSegment(clip.name()) ? mjpeg : mkv).add(clip);
+        }
+        if (!mkv.isEmpty()) {
+            return new Plan(mkv, false, fromMillis, toMillis);
+        }
+        if (!mjpeg.isEmpty()) {
+            return new Plan(mjpeg, true, fromMillis, toMillis);
+        }
+        return null;
+    }
+
+    // The byte ranges holding the window's frames, in order. A segment without a readable index
+    // is included whole.
+    public static List<Range> mjpegRanges(Plan plan, Path clipsDir) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        for (ClipInfo clip : plan.clips()) {
+            Path segment = clipsDir.resolve(clip.name());
+            Path index = clipsDir.resolve(MjpegSegmentRecorder.indexName(clip.name()));
+            if (!Files.isRegularFile(index)) {
+                ranges.add(new Range(segment, 0, Files.size(segment)));
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+                Range range = findFrames(channel, segment, plan.fromMillis(), plan.toMillis());
+                if (range != null) {
+                    ranges.add(range);
+                }
+            }
+        }
+        return ranges;
+    }
+
+    // Binary search of the index for the frames timestamped within [fromMillis, toMillis)
+    private static Range findFrames(FileChannel index, Path segment, long fromMillis, long toMillis) throws IOException {
+        int headerSize = MjpegSegmentRecorder.INDEX_MAGIC.length;
+        ByteBuffer entry = ByteBuffer.allocate(Math.max(headerSize, MjpegSegmentRecorder.INDEX_ENTRY_SIZE));
+        entry.limit(headerSize);
+        readFully(index, entry, 0);
+        if (!Arrays.equals(entry.array(), 0, headerSize, MjpegSegmentRecorder.INDEX_MAGIC, 0, headerSize)) {
+            throw new IOException("Not an MJPEG segment index: " + segment);
+        }
+        // The recorder may be mid-flush, a partial last entry is ignored
+        long count = (index.size() - headerSize) / MjpegSegmentRecorder.INDEX_ENTRY_SIZE;
+        long first = firstAtOrAfter(index, entry, count, fromMillis);
+        long end = firstAtOrAfter(index, entry, count, toMillis);
+        if (first >= end) {
+            return null;
+        }
+        readEntry(index, entry, first);
+        long start = entry.getLong(8);
+        readEntry(index, entry, end - 1);
+        return new Range(segment, start, entry.getLong(8) + entry.getInt(16));
+    }
+
+    private static long firstAtOrAfter(FileChannel index, ByteBuffer entry, long count, long timestampMillis)
+            throws IOException {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            readEntry(index, entry, middle);
+            if (entry.getLong(0) < timestampMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void readEntry(FileChannel index, ByteBuffer entry, long number) throws IOException {
+        entry.clear().limit(MjpegSegmentRecorder.INDEX_ENTRY_SIZE);
+        readFully(index, entry, MjpegSegmentRecorder.INDEX_MAGIC.length + number * MjpegSegmentRecorder.INDEX_ENTRY_SIZE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Segment index ended early");
+            }
+            position += read;
+        }
+    }
+
+    // Starts ffmpeg remuxing the window's MKV segments to Matroska on its stdout. Its errors go
+    // to the camera's FFmpeg log.
+    public static Process startRemux(Plan plan, Path clipsDir, File logFile) throws IOException {
+        List<String> command = List.of("ffmpeg", "-hide_banner", "-loglevel", "error",
+                "-f", "concat", "-safe", "0", "-protocol_whitelist", "file,pipe", "-i", "pipe:0",
+                "-map", "0", "-c", "copy", "-f", "matroska", "pipe:1");
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.appendTo(logFile));
+        Process process = pb.start();
+
+        // The concat list goes in through stdin, so nothing is staged on disk
+        try (Writer list = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+            list.write("ffconcat version 1.0\n");
+            for (ClipInfo clip : plan.clips()) {
+                String path = clipsDir.resolve(clip.name()).toAbsolutePath().toString();
+                list.write("file '" + path.replace("'", "'\\''") + "'\n");
+                if (plan.fromMillis() > clip.startMillis()) {
+                    list.write("inpoint " + seconds(plan.fromMillis() - clip.startMillis()) + "\n");
+                }
+                if (plan.toMillis() < clip.endMillis()) {
+                    list.write("outpoint " + seconds(plan.toMillis() - clip.startMillis()) + "\n");
+                }
+            }
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        return process;
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    // Copies the ranges to the response. The target is a wrapped OutputStream, so transferTo
+    // copies through a bounded JDK buffer rather than using sendfile(2).
+    public static void writeRanges(List<Range> ranges, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        for (Range range : ranges) {
+            try (FileChannel file = FileChannel.open(range.file(), StandardOpenOption.READ)) {
+                long position = range.start();
+                while (position < range.end()) {
+                    long transferred = file.transferTo(position, range.end() - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("Segment " + range.file().getFileName() + " shrank while being served");
+                    }
+                    position += transferred;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.example;
+
+// One recorded clip as listed by the ClipCatalog. The start time comes from the segment's
+// file name and the duration runs to the file's last write, which for a segment is when
+// the recorder moved on to the next one.
+public record ClipInfo(String name, long size, long startMillis, long durationMillis, long lastModifiedMillis) {
+
+    public long endMillis() {
+        return startMillis + durationMillis;
+    }
+}
@@ -1,3 +1,17 @@
 package org.example;
 
-public record Config(String RECORDING_CLIPS_DIR, String CAMERA_DEVICE_PATH, String FFMPEG_LOG_FILE){}
+import java.util.List;
+
+public record Config(String RECORDING_CLIPS_DIR, String CAMERA_DEVICE_PATH, String FFMPEG_LOG_FILE,
+                     int FRAME_BUFFER_SIZE, int STREAM_CLIENT_QUEUE_SIZE, String STREAM_ENGINE,
+                     int NIO_STREAM_PORT, int NIO_SELECTOR_THREADS, int FRAME_POOL_MAX_FREE_BUFFERS,
+                     String EXECUTION_MODE, double STREAM_DEFAULT_FPS,
+                     List<StreamProfile> STREAM_PROFILES, String FRAME_DEDUP_MODE, long FRAME_DEDUP_KEEPALIVE_MS,
+                     String CLIP_CATALOG_FILE,
+                     String SOURCE_URL, int RELAY_PORT, List<CameraConfig> CAMERAS,
+                     long RETENTION_MAX_CLIPS_MB, long RETENTION_MIN_FREE_MB, long RETENTION_INTERVAL_SECONDS,
+                     long SOURCE_STALL_TIMEOUT_MS, long SOURCE_RECONNECT_MIN_MS, long SOURCE_RECONNECT_MAX_MS,
+                     long STALE_FRAME_INTERVAL_MS, String SOURCE_FALLBACK_URL,
+                     String RECORDING_MODE, int PRE_EVENT_SECONDS, int PRE_EVENT_MAX_MB,
+                     String MOTION_DETECTION, int MOTION_FRAME_INTERVAL, int MOTION_PIXEL_THRESHOLD,
+                     double MOTION_MIN_AREA_PERCENT, int MOTION_COOLDOWN_SECONDS, List<MotionZone> MOTION_ZONES){}
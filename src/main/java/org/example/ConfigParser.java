@@ -2,6 +2,8 @@ package org.example;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 ;
@@ -12,15 +14,48 @@ public class ConfigParser {
         String RECORDING_CLIPS_DIR = "./clips";
         String CAMERA_DEVICE_PATH = "/dev/video98";
         String FFMPEG_LOG_FILE = "./ffmpeg.log";
+        int FRAME_BUFFER_SIZE = 30;
+        int STREAM_CLIENT_QUEUE_SIZE = 3;
+        String STREAM_ENGINE = "threaded";
+        int NIO_STREAM_PORT = 9091;
+        int NIO_SELECTOR_THREADS = 2;
+        int FRAME_POOL_MAX_FREE_BUFFERS = 64;
+        String EXECUTION_MODE = "platform";
+        double STREAM_DEFAULT_FPS = 0;
+        List<StreamProfile> STREAM_PROFILES = new ArrayList<>();
+        String FRAME_DEDUP_MODE = "off";
+        long FRAME_DEDUP_KEEPALIVE_MS = 2000;
+        String CLIP_CATALOG_FILE = "./clips.catalog";
+        String SOURCE_URL = "http://localhost:8080";
+        String SOURCE_FALLBACK_URL = null;
+        String RECORDING_MODE = "ffmpeg";
+        int PRE_EVENT_SECONDS = 0;
+        int PRE_EVENT_MAX_MB = 32;
+        String MOTION_DETECTION = "off";
+        int MOTION_FRAME_INTERVAL = 5;
+        int MOTION_PIXEL_THRESHOLD = 25;
+        double MOTION_MIN_AREA_PERCENT = 1.0;
+        int MOTION_COOLDOWN_SECONDS = 30;
+        List<MotionZone> MOTION_ZONES = new ArrayList<>();
+        int RELAY_PORT = 9090;
+        List<String> CAMERA_SPECS = new ArrayList<>();
+        long RETENTION_MAX_CLIPS_MB = 0;
+        long RETENTION_MIN_FREE_MB = 0;
+        long RETENTION_INTERVAL_SECONDS = 60;
+        long SOURCE_STALL_TIMEOUT_MS = 5000;
+        long SOURCE_RECONNECT_MIN_MS = 500;
+        long SOURCE_RECONNECT_MAX_MS = 30000;
+        long STALE_FRAME_INTERVAL_MS = 1000;
 
         if (config.exists()) {
             Scanner scanner = new Scanner(config);
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
-                String[] tokens = line.split(":");
-                String key = tokens[0];
-                String value = tokens[1];
+                // Only the first colon separates the key, values such as URLs may contain more
+                String[] tokens = line.split(":", 2);
                 if (tokens.length >= 2) {
+                    String key = tokens[0];
+                    String value = tokens[1];
                     switch (key) {
                         case "camera_url":
                             CAMERA_DEVICE_PATH = value;
@@ -31,6 +66,134 @@ public class ConfigParser {
                         case "recording_clips_dir":
                             RECORDING_CLIPS_DIR = value;
                             break;
+                        case "frame_buffer_size":
+                            FRAME_BUFFER_SIZE = Integer.parseInt(value.trim());
+                            break;
+                        case "stream_client_queue_size":
+                            STREAM_CLIENT_QUEUE_SIZE = Integer.parseInt(value.trim());
+                            break;
+                        case "stream_engine":
+                            STREAM_ENGINE = value.trim().toLowerCase();
+                            if (!STREAM_ENGINE.equals("threaded") && !STREAM_ENGINE.equals("nio")) {
+                                throw new IllegalArgumentException("Invalid stream_engine '" + value.trim() +
+                                        "', expected threaded or nio");
+                            }
+                            break;
+                        case "nio_stream_port":
+                            NIO_STREAM_PORT = Integer.parseInt(value.trim());
+                            break;
+                        case "nio_selector_threads":
+                            NIO_SELECTOR_THREADS = Integer.parseInt(value.trim());
+                            break;
+                        case "frame_pool_max_free_buffers":
+                            FRAME_POOL_MAX_FREE_BUFFERS = Integer.parseInt(value.trim());
+                            break;
+                        case "execution_mode":
+                            EXECUTION_MODE = value.trim().toLowerCase();
+                            if (!EXECUTION_MODE.equals("platform") && !EXECUTION_MODE.equals("virtual")) {
+                                throw new IllegalArgumentException("Invalid execution_mode '" + value.trim() +
+                                        "', expected platform or virtual");
+                            }
+                            break;
+                        case "stream_default_fps":
+                            STREAM_DEFAULT_FPS = Double.parseDouble(value.trim());
+                            break;
+                        case "stream_profile":
+                            STREAM_PROFILES.add(StreamProfile.parse(value));
+                            break;
+                        case "frame_dedup":
+                            FRAME_DEDUP_MODE = value.trim();
+                            break;
+                        case "frame_dedup_keepalive_ms":
+                            FRAME_DEDUP_KEEPALIVE_MS = Long.parseLong(value.trim());
+                            break;
+                        case "clip_catalog_file":
+                            CLIP_CATALOG_FILE = value.trim();
+                            break;
+                        case "source_url":
+                            SOURCE_URL = value.trim();
+                            break;
+                        case "source_fallback_url":
+                            SOURCE_FALLBACK_URL = value.trim().isEmpty() ? null : value.trim();
+                            break;
+                        case "recording_mode":
+                            RECORDING_MODE = value.trim().toLowerCase();
+                            if (!RECORDING_MODE.equals("ffmpeg") && !RECORDING_MODE.equals("mjpeg")) {
+                                throw new IllegalArgumentException("Invalid recording_mode '" + value.trim() +
+                                        "', expected ffmpeg or mjpeg");
+                            }
+                            break;
+                        case "pre_event_seconds":
+                            PRE_EVENT_SECONDS = Integer.parseInt(value.trim());
+                            break;
+                        case "pre_event_max_mb":
+                            PRE_EVENT_MAX_MB = Integer.parseInt(value.trim());
+                            if (PRE_EVENT_MAX_MB < 1 || PRE_EVENT_MAX_MB > 2047) {
+                                throw new IllegalArgumentException("Invalid pre_event_max_mb '" + value.trim() +
+                                        "', expected 1 to 2047");
+                            }
+                            break;
+                        case "motion_detection":
+                            MOTION_DETECTION = value.trim().toLowerCase();
+                            if (!MOTION_DETECTION.equals("off") && !MOTION_DETECTION.equals("events") &&
+                                    !MOTION_DETECTION.equals("record")) {
+                                throw new IllegalArgumentException("Invalid motion_detection '" + value.trim() +
+                                        "', expected off, events or record");
+                            }
+                            break;
+                        case "motion_frame_interval":
+                            MOTION_FRAME_INTERVAL = Integer.parseInt(value.trim());
+                            break;
+                        case "motion_pixel_threshold":
+                            MOTION_PIXEL_THRESHOLD = Integer.parseInt(value.trim());
+                            break;
+                        case "motion_min_area_percent":
+                            MOTION_MIN_AREA_PERCENT = Double.parseDouble(value.trim());
+                            break;
+                        case "motion_cooldown_seconds":
+                            MOTION_COOLDOWN_SECONDS = Integer.parseInt(value.trim());
+                            break;
+                        case "motion_zone":
+                            MOTION_ZONES.add(MotionZone.parse(value));
+                            break;
+                        case "relay_port":
+                            RELAY_PORT = Integer.parseInt(value.trim());
+                            break;
+                        case "camera":
+                            CAMERA_SPECS.add(value);
+                            break;
+                        case "retention_max_clips_mb":
+                            RETENTION_MAX_CLIPS_MB = Long.parseLong(value.trim());
+                            break;
+                        case "retention_min_free_mb":
+                            RETENTION_MIN_FREE_MB = Long.parseLong(value.trim());
+                            break;
+                        case "retention_interval_seconds":
+                            RETENTION_INTERVAL_SECONDS = Long.parseLong(value.trim());
+                            break;
+                        case "source_stall_timeout_ms":
+                            SOURCE_STALL_TIMEOUT_MS = Long.parseLong(value.trim());
+                            // 0 would turn the HTTP timeouts off and have the watchdog drop every connection
+                            if (SOURCE_STALL_TIMEOUT_MS <= 0) {
+                                throw new IllegalArgumentException("Invalid source_stall_timeout_ms '" + value.trim() +
+                                        "', expected a positive number of milliseconds");
+                            }
+                            // It is also the URLConnection timeout, an int
+                            SOURCE_STALL_TIMEOUT_MS = Math.min(SOURCE_STALL_TIMEOUT_MS, Integer.MAX_VALUE);
+                            break;
+                        case "source_reconnect_min_ms":
+                            SOURCE_RECONNECT_MIN_MS = Long.parseLong(value.trim());
+                            if (SOURCE_RECONNECT_MIN_MS < 0) {
+                                throw new IllegalArgumentException("Invalid source_reconnect_min_ms '" + value.trim() +
+                                        "', expected 0 or more milliseconds");
+                            }
+                            break;
+                        case "source_reconnect_max_ms":
+                            SOURCE_RECONNECT_MAX_MS = Long.parseLong(value.trim());
+                            break;
+                        case "stale_frame_interval_ms":
+                            STALE_FRAME_INTERVAL_MS = Long.parseLong(value.trim());
+                            break;
                         default:
                             break;
                     }
@@ -39,6 +202,45 @@ public class ConfigParser {
             scanner.close();
         }
 
-        return new Config(RECORDING_CLIPS_DIR, CAMERA_DEVICE_PATH, FFMPEG_LOG_FILE);
+        // Checked once every key is read, the two may appear in either order
+        if (SOURCE_RECONNECT_MIN_MS > SOURCE_RECONNECT_MAX_MS) {
+            throw new IllegalArgumentException("source_reconnect_min_ms (" + SOURCE_RECONNECT_MIN_MS +
+                    ") must not exceed source_reconnect_max_ms (" + SOURCE_RECONNECT_MAX_MS + ")");
+        }
+
+        if (STREAM_PROFILES.isEmpty()) {
+            STREAM_PROFILES.add(new StreamProfile("thumb", 320, 180, 60));
+            STREAM_PROFILES.add(new StreamProfile("preview", 640, 360, 70));
+        }
+
+        // Cameras are parsed last, their defaults come from the global keys wherever those appear
+        List<CameraConfig> CAMERAS = new ArrayList<>();
+        for (String spec : CAMERA_SPECS) {
+            CameraConfig camera = CameraConfig.parse(spec, CAMERA_DEVICE_PATH, RECORDING_CLIPS_DIR,
+                    FFMPEG_LOG_FILE, CLIP_CATALOG_FILE);
+            for (CameraConfig other : CAMERAS) {
+                if (other.name().equals(camera.name())) {
+                    throw new IllegalArgumentException("Camera '" + camera.name() + "' is configured twice");
+                }
+            }
+            CAMERAS.add(camera);
+        }
+        if (CAMERAS.isEmpty()) {
+            // Without camera entries the global keys describe the one camera, as they always have
+            CAMERAS.add(new CameraConfig("default", SOURCE_URL, CAMERA_DEVICE_PATH, RECORDING_CLIPS_DIR,
+                    FFMPEG_LOG_FILE, CLIP_CATALOG_FILE, SOURCE_FALLBACK_URL, null));
+        }
+
+        return new Config(RECORDING_CLIPS_DIR, CAMERA_DEVICE_PATH, FFMPEG_LOG_FILE,
+                FRAME_BUFFER_SIZE, STREAM_CLIENT_QUEUE_SIZE, STREAM_ENGINE,
+                NIO_STREAM_PORT, NIO_SELECTOR_THREADS, FRAME_POOL_MAX_FREE_BUFFERS,
+                EXECUTION_MODE, STREAM_DEFAULT_FPS, STREAM_PROFILES,
+                FRAME_DEDUP_MODE, FRAME_DEDUP_KEEPALIVE_MS,
+                CLIP_CATALOG_FILE, SOURCE_URL, RELAY_PORT, CAMERAS,
+                RETENTION_MAX_CLIPS_MB, RETENTION_MIN_FREE_MB, RETENTION_INTERVAL_SECONDS,
+                SOURCE_STALL_TIMEOUT_MS, SOURCE_RECONNECT_MIN_MS, SOURCE_RECONNECT_MAX_MS, STALE_FRAME_INTERVAL_MS,
+                SOURCE_FALLBACK_URL, RECORDING_MODE, PRE_EVENT_SECONDS, PRE_EVENT_MAX_MB,
+                MOTION_DETECTION, MOTION_FRAME_INTERVAL, MOTION_PIXEL_THRESHOLD, MOTION_MIN_AREA_PERCENT,
+                MOTION_COOLDOWN_SECONDS, MOTION_ZONES);
     }
 }
@@ -0,0 +1,321 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Local stand-in for the C camera server: serves a multipart MJPEG stream that replays a
+// directory of JPEGs (or generated test frames) at a fixed rate. Every frame carries its send
+// time in a JPEG comment segment, so a viewer on the same host can measure glass-to-client
+// latency through the relay. With --unix-socket it also serves the C server's length-prefixed
+// frames on that socket path, and with --ring it writes every frame into a shared-memory frame
+// ring like the C server's -r option. Run it on its own with
+//   java -cp JServer-jar-with-dependencies.jar org.example.FakeMjpegSource --port 8080 --fps 30 [--dir jpegs]
+//       [--unix-socket /tmp/mjpeg_stream.sock] [--ring /dev/shm/mjpeg.ring [--ring-slots 8]]
+public class FakeMjpegSource {
+    private static final byte[] STAMP_PREFIX = "relay-glass:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE_HEAD = ("HTTP/1.1 200 OK\r\n" +
+            "Content-Type: multipart/x-mixed-replace; boundary=" + Frame.BOUNDARY + "\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final int port;
+    private final double fps;
+    private final List<byte[]> frames;
+    private ServerSocket serverSocket;
+    private ServerSocketChannel unixServer;
+    private volatile boolean running = false;
+
+    public FakeMjpegSource(int port, double fps, List<byte[]> frames) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Fake source needs at least one frame");
+        }
+        this.port = port;
+        this.fps = fps;
+        this.frames = frames;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        ToolArgs options = new ToolArgs(args);
+        FakeMjpegSource source = new FakeMjpegSource(options.getInt("port", 8080), options.getDouble("fps", 30),
+                framesFor(options));
+        source.start();
+        if (options.has("unix-socket")) {
+            source.startUnix(Path.of(options.getString("unix-socket", "/tmp/mjpeg_stream.sock")));
+        }
+        if (options.has("ring")) {
+            source.startRing(Path.of(options.getString("ring", "/dev/shm/mjpeg.ring")), options.getInt("ring-slots", 8));
+        }
+        System.out.println("FakeMjpegSource: Press Ctrl+C to stop.");
+        Thread.currentThread().join();
+    }
+
+    // Frames from --dir, or generated ones of --width x --height when no directory is given
+    public static List<byte[]> framesFor(ToolArgs options) throws IOException {
+        if (options.has("dir")) {
+            return loadFrames(Paths.get(options.getString("dir", ".")));
+        }
+        return generateFrames(options.getInt("frames", 30), options.getInt("width", 1280), options.getInt("height", 720));
+    }
+
+    public static List<byte[]> loadFrames(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, "*.{jpg,jpeg,JPG,JPEG}")) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        }
+        files.sort(null);
+        List<byte[]> frames = new ArrayList<>(files.size());
+        for (Path file : files) {
+            frames.add(Files.readAllBytes(file));
+        }
+        System.out.println("FakeMjpegSource: Loaded " + frames.size() + " JPEGs from " + dir);
+        return frames;
+    }
+
+    // Distinct frames with a moving gradient and a counter, roughly camera-sized once encoded
+    public static List<byte[]> generateFrames(int count, int width, int height) throws IOException {
+        List<byte[]> frames = new ArrayList<>(count);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < count; i++) {
+            Graphics2D graphics = image.createGraphics();
+            try {
+                float shift = (float) i / count * width;
+                graphics.setPaint(new GradientPaint(shift, 0, Color.DARK_GRAY, shift + width / 2f, height, Color.ORANGE, true));
+                graphics.fillRect(0, 0, width, height);
+                graphics.setColor(Color.WHITE);
+                graphics.setFont(new Font(Font.MONOSPACED, Font.BOLD, Math.max(12, height / 8)));
+                graphics.drawString("frame " + i, width / 10, height / 2);
+            } finally {
+                graphics.dispose();
+            }
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpeg", jpeg);
+            frames.add(jpeg.toByteArray());
+        }
+        System.out.println("FakeMjpegSource: Generated " + count + " " + width + "x" + height + " frames");
+        return frames;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        running = true;
+        Thread.ofPlatform().name("fake-source-acceptor").daemon(true).start(this::acceptConnections);
+        System.out.println("FakeMjpegSource: Serving " + frames.size() + " frames at " + fps + " fps on port " + port);
+    }
+
+    // Serves the Unix socket framing: "MJF1", then a 4-byte big-endian length and the JPEG per frame
+    public void startUnix(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        unixServer = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        unixServer.bind(UnixDomainSocketAddress.of(socketPath));
+        running = true;
+        Thread.ofPlatform().name("fake-source-unix-acceptor").daemon(true).start(this::acceptUnixConnections);
+        System.out.println("FakeMjpegSource: Serving frames at " + fps + " fps on unix:" + socketPath);
+    }
+
+    // Writes the frames into a fresh ring at the given rate, whether or not anyone reads them
+    public void startRing(Path ringPath, int slots) throws IOException {
+        int largestFrame = 0;
+        for (byte[] frame : frames) {
+            largestFrame = Math.max(largestFrame, frame.length);
+        }
+        // Room for the timestamp comment stamp() adds
+        MappedFrameRing ring = MappedFrameRing.create(ringPath, slots, largestFrame + 64);
+        running = true;
+        Thread.ofPlatform().name("fake-source-ring").daemon(true).start(() -> writeRing(ring));
+        System.out.println("FakeMjpegSource: Writing frames at " + fps + " fps to ring " + ringPath + " (" + slots +
+                " slots of " + ring.getSlotSize() + " bytes)");
+    }
+
+    private void writeRing(MappedFrameRing ring) {
+        long intervalNanos = (long) (1_000_000_000L / fps);
+        long nextFrameNanos = System.nanoTime();
+        for (long index = 0; running; index++) {
+            long waitNanos = nextFrameNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            nextFrameNanos += intervalNanos;
+            ring.publish(stamp(frames.get((int) (index % frames.size())), epochMicros()), System.currentTimeMillis());
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            if (unixServer != null) {
+                unixServer.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofPlatform().name("fake-source-" + socket.getPort()).daemon(true).start(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("FakeMjpegSource: accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void acceptUnixConnections() {
+        for (int client = 0; running; client++) {
+            try {
+                SocketChannel channel = unixServer.accept();
+                Thread.ofPlatform().name("fake-source-unix-" + client).daemon(true).start(() -> serveUnix(channel));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("FakeMjpegSource: Unix socket accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serveUnix(SocketChannel channel) {
+        System.out.println("FakeMjpegSource: Unix socket client connected");
+        try (channel) {
+            ByteBuffer magic = ByteBuffer.wrap(UnixSocketFrameReader.MAGIC);
+            while (magic.hasRemaining()) {
+                channel.write(magic);
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            long intervalNanos = (long) (1_000_000_000L / fps);
+            long nextFrameNanos = System.nanoTime();
+            for (long index = 0; running; index++) {
+                long waitNanos = nextFrameNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                nextFrameNanos += intervalNanos;
+
+                byte[] jpeg = stamp(frames.get((int) (index % frames.size())), epochMicros());
+                ByteBuffer[] frame = {length.clear().putInt(0, jpeg.length), ByteBuffer.wrap(jpeg)};
+                while (frame[1].hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("FakeMjpegSource: Unix socket client disconnected: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) {
+        System.out.println("FakeMjpegSource: Client connected from " + socket.getRemoteSocketAddress());
+        try (socket) {
+            skipRequestHead(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            out.write(RESPONSE_HEAD);
+
+            long intervalNanos = (long) (1_000_000_000L / fps);
+            long nextFrameNanos = System.nanoTime();
+            for (long index = 0; running; index++) {
+                // Pace against a fixed schedule so a slow write doesn't lower the average rate
+                long waitNanos = nextFrameNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                nextFrameNanos += intervalNanos;
+
+                byte[] jpeg = stamp(frames.get((int) (index % frames.size())), epochMicros());
+                out.write(("--" + Frame.BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length +
+                        "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(jpeg);
+                out.write(Frame.PART_TRAILER);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("FakeMjpegSource: Client disconnected: " + e.getMessage());
+        }
+    }
+
+    private static void skipRequestHead(InputStream in) throws IOException {
+        int matched = 0;
+        int b;
+        while (matched < 4 && (b = in.read()) != -1) {
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    public static long epochMicros() {
+        Instant now = Instant.now();
+        return TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + now.getNano() / 1000;
+    }
+
+    // Copy of the JPEG with a COM segment holding the send time right after SOI
+    static byte[] stamp(byte[] jpeg, long micros) {
+        byte[] text = (new String(STAMP_PREFIX, StandardCharsets.US_ASCII) + micros).getBytes(StandardCharsets.US_ASCII);
+        int segmentLength = text.length + 2;
+        byte[] stamped = new byte[jpeg.length + 2 + segmentLength];
+        stamped[0] = jpeg[0];
+        stamped[1] = jpeg[1];
+        stamped[2] = (byte) 0xFF;
+        stamped[3] = (byte) 0xFE;
+        stamped[4] = (byte) (segmentLength >> 8);
+        stamped[5] = (byte) segmentLength;
+        System.arraycopy(text, 0, stamped, 6, text.length);
+        System.arraycopy(jpeg, 2, stamped, 6 + text.length, jpeg.length - 2);
+        return stamped;
+    }
+
+    // Send time written by stamp(), or -1 if the JPEG doesn't start with one
+    public static long readStamp(byte[] jpeg, int length) {
+        if (length < 6 + STAMP_PREFIX.length || (jpeg[2] & 0xFF) != 0xFF || (jpeg[3] & 0xFF) != 0xFE) {
+            return -1;
+        }
+        int segmentLength = ((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF);
+        int end = 4 + segmentLength;
+        if (end > length) {
+            return -1;
+        }
+        for (int i = 0; i < STAMP_PREFIX.length; i++) {
+            if (jpeg[6 + i] != STAMP_PREFIX[i]) {
+                return -1;
+            }
+        }
+        long micros = 0;
+        for (int i = 6 + STAMP_PREFIX.length; i < end; i++) {
+            micros = micros * 10 + (jpeg[i] - '0');
+        }
+        return micros;
+    }
+}
@@ -0,0 +1,162 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A single, complete JPEG frame parsed out of the source multipart stream. The bytes live
+// in a pooled FrameBuffer; every holder (ring buffer, client queue, in-flight write) takes
+// its own reference with retain() and gives it back with release().
+public final class Frame {
+    public static final String BOUNDARY = "frame";
+    public static final byte[] PART_TRAILER = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final ByteBuffer PART_TRAILER_BUFFER = ByteBuffer.allocateDirect(PART_TRAILER.length)
+            .put(PART_TRAILER).flip().asReadOnlyBuffer();
+
+    private static final byte[] HEADER_PREFIX = ("--" + BOUNDARY + "\r\n" +
+            "Content-Type: image/jpeg\r\n" +
+            "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_SUFFIX = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final long sequence;
+    private final long timestampMillis;
+    private final FrameBuffer buffer;
+    private final int length;
+    private final int headerOffset; // -1 when the part header lives outside the buffer
+    private final ByteBuffer partHeaderBuffer;
+    private final ByteBuffer payloadBuffer;
+
+    // Takes over the caller's reference to a buffer holding length JPEG bytes at HEADER_ROOM
+    public Frame(long sequence, long timestampMillis, FrameBuffer buffer, int length) {
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+        this.buffer = buffer;
+        this.length = length;
+        this.headerOffset = writePartHeader(buffer.buffer(), length);
+
+        ByteBuffer memory = buffer.buffer();
+        this.partHeaderBuffer = memory.slice(headerOffset, FrameBuffer.HEADER_ROOM - headerOffset).asReadOnlyBuffer();
+        this.payloadBuffer = memory.slice(FrameBuffer.HEADER_ROOM, length).asReadOnlyBuffer();
+    }
+
+    // Stale repeat of a frame: shares the original's JPEG and has its own part header
+    private Frame(Frame original, long timestampMillis, ByteBuffer partHeaderBuffer) {
+        this.sequence = original.sequence;
+        this.timestampMillis = timestampMillis;
+        this.buffer = original.buffer;
+        this.length = original.length;
+        this.headerOffset = -1;
+        this.partHeaderBuffer = partHeaderBuffer;
+        this.payloadBuffer = original.payloadBuffer;
+    }
+
+    // Repeat of this frame for viewers while the source is down. The JPEG is shared (the copy
+    // holds its own reference), the part header adds X-Frame-Stale with the age of the image
+    // in milliseconds. The copy is timestamped now, when the relay sends it. The original's
+    // headroom still holds its own header for other writers, so the stale header is a small heap
+    // buffer: gathering writes copy it like any other, and it costs no direct memory outside the pool.
+    public Frame markedStale(long nowMillis) {
+        byte[] header = ("--" + BOUNDARY + "\r\n" +
+                "Content-Type: image/jpeg\r\n" +
+                "Content-Length: " + length + "\r\n" +
+                "X-Frame-Stale: " + Math.max(0, nowMillis - timestampMillis) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        buffer.retain();
+        return new Frame(this, nowMillis, ByteBuffer.wrap(header).asReadOnlyBuffer());
+    }
+
+    public boolean isStale() {
+        return headerOffset < 0;
+    }
+
+    // Writes the multipart part header into the headroom just before the JPEG, returns its offset
+    private static int writePartHeader(ByteBuffer memory, int length) {
+        int digits = 1;
+        for (int value = length; value >= 10; value /= 10) {
+            digits++;
+        }
+        int offset = FrameBuffer.HEADER_ROOM - HEADER_PREFIX.length - digits - HEADER_SUFFIX.length;
+        memory.put(offset, HEADER_PREFIX);
+        int index = offset + HEADER_PREFIX.length + digits - 1;
+        for (int value = length; index >= offset + HEADER_PREFIX.length; value /= 10) {
+            memory.put(index--, (byte) ('0' + value % 10));
+        }
+        memory.put(offset + HEADER_PREFIX.length + digits, HEADER_SUFFIX);
+        return offset;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int partHeaderLength() {
+        return partHeaderBuffer.remaining();
+    }
+
+    // Part header, JPEG and trailer together, as written to a client
+    public int wireLength() {
+        return partHeaderLength() + length + PART_TRAILER.length;
+    }
+
+    public void retain() {
+        buffer.retain();
+    }
+
+    public void release() {
+        buffer.release();
+    }
+
+    // Shared read-only view of the part header; writers must use duplicate() for their own position
+    public ByteBuffer partHeaderBuffer() {
+        return partHeaderBuffer;
+    }
+
+    // Shared read-only view of the JPEG; writers must use duplicate() for their own position
+    public ByteBuffer payloadBuffer() {
+        return payloadBuffer;
+    }
+
+    // Heap copy of the JPEG for consumers that need an array, not for the relay hot path
+    public byte[] copyPayload() {
+        byte[] data = new byte[length];
+        buffer.buffer().get(FrameBuffer.HEADER_ROOM, data);
+        return data;
+    }
+
+    // Writes the whole part to a blocking stream through the caller's reusable scratch array
+    public void writeTo(OutputStream out, byte[] scratch) throws IOException {
+        if (headerOffset >= 0) {
+            copyTo(out, scratch, headerOffset);
+        } else {
+            int headerLength = partHeaderLength();
+            partHeaderBuffer.get(0, scratch, 0, headerLength);
+            out.write(scratch, 0, headerLength);
+            copyTo(out, scratch, FrameBuffer.HEADER_ROOM);
+        }
+        out.write(PART_TRAILER);
+    }
+
+    // Writes just the JPEG to a blocking stream through the caller's reusable scratch array
+    public void writePayloadTo(OutputStream out, byte[] scratch) throws IOException {
+        copyTo(out, scratch, FrameBuffer.HEADER_ROOM);
+    }
+
+    private void copyTo(OutputStream out, byte[] scratch, int from) throws IOException {
+        ByteBuffer memory = buffer.buffer();
+        int end = FrameBuffer.HEADER_ROOM + length;
+        for (int index = from; index < end; ) {
+            int chunk = Math.min(scratch.length, end - index);
+            memory.get(index, scratch, 0, chunk);
+            out.write(scratch, 0, chunk);
+            index += chunk;
+        }
+    }
+}
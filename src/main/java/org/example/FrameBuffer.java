@@ -0,0 +1,61 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A pooled, reference-counted direct buffer holding one frame. The JPEG is stored after
+// HEADER_ROOM bytes of headroom so the multipart part header can be written right in
+// front of it. The buffer goes back to its pool when the last holder releases it.
+public final class FrameBuffer {
+    public static final int HEADER_ROOM = 128;
+
+    private final FrameBufferPool pool;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger(0);
+
+    FrameBuffer(FrameBufferPool pool, int sizeClass, int capacity) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    // Backing memory, only ever accessed with absolute get/put so holders never share a position
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    // Called by the pool when handing the buffer out, the acquirer owns the first reference
+    void acquired() {
+        refCount.set(1);
+    }
+
+    public void retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame buffer retained after it was released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame buffer released more often than retained");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Power-of-two size classes of reusable direct frame buffers. In steady state every
+// source frame is read into a recycled buffer, so the relay hot path does not allocate
+// frame memory at all; the hit/miss and allocation counters are there to prove it.
+public class FrameBufferPool {
+    private static final int MIN_CLASS_SHIFT = 14; // 16 KB
+    private static final int SIZE_CLASSES = 12;     // up to 32 MB
+
+    private final int maxFreePerClass;
+    private final FrameBuffer[][] free;
+    private final int[] freeCount;
+    private final ReentrantLock[] locks;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder discardedBuffers = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+    private final long createdAtMillis = System.currentTimeMillis();
+
+    private final ReentrantLock rateLock = new ReentrantLock();
+    private long lastRateSampleMillis = createdAtMillis;
+    private long lastRateSampleBytes = 0;
+
+    public FrameBufferPool(int maxFreePerClass) {
+        if (maxFreePerClass < 0) {
+            throw new IllegalArgumentException("Free buffers per size class cannot be negative, got " + maxFreePerClass);
+        }
+        this.maxFreePerClass = maxFreePerClass;
+        this.free = new FrameBuffer[SIZE_CLASSES][maxFreePerClass];
+        this.freeCount = new int[SIZE_CLASSES];
+        this.locks = new ReentrantLock[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Buffer large enough for a payload of the given size plus header room, holding one reference
+    public FrameBuffer acquire(int payloadLength) {
+        int sizeClass = sizeClassFor(FrameBuffer.HEADER_ROOM + payloadLength);
+        FrameBuffer buffer = null;
+
+        ReentrantLock lock = locks[sizeClass];
+        lock.lock();
+        try {
+            if (freeCount[sizeClass] > 0) {
+                int index = --freeCount[sizeClass];
+                buffer = free[sizeClass][index];
+                free[sizeClass][index] = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (buffer != null) {
+            hits.increment();
+        } else {
+            int capacity = 1 << (sizeClass + MIN_CLASS_SHIFT);
+            buffer = new FrameBuffer(this, sizeClass, capacity);
+            misses.increment();
+            allocatedBytes.add(capacity);
+        }
+        outstanding.increment();
+        buffer.acquired();
+        return buffer;
+    }
+
+    void recycle(FrameBuffer buffer) {
+        outstanding.decrement();
+        int sizeClass = buffer.sizeClass();
+        ReentrantLock lock = locks[sizeClass];
+        lock.lock();
+        try {
+            if (freeCount[sizeClass] < maxFreePerClass) {
+                free[sizeClass][freeCount[sizeClass]++] = buffer;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Pool for this class is full, leave the buffer to the GC
+        discardedBuffers.increment();
+    }
+
+    private static int sizeClassFor(int bytes) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+        int sizeClass = Math.max(0, shift - MIN_CLASS_SHIFT);
+        if (sizeClass >= SIZE_CLASSES) {
+            throw new IllegalArgumentException("Frame of " + bytes + " bytes is larger than the biggest pool size class");
+        }
+        return sizeClass;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    // Snapshot of the pool counters for the statistics endpoint. The recent allocation rate
+    // covers the time since the previous snapshot and should read 0 once the relay is warm.
+    public Map<String, Object> toStatistics() {
+        long now = System.currentTimeMillis();
+        long allocated = allocatedBytes.sum();
+        double recentRate;
+        rateLock.lock();
+        try {
+            long elapsed = Math.max(1, now - lastRateSampleMillis);
+            recentRate = (allocated - lastRateSampleBytes) * 1000.0 / elapsed;
+            lastRateSampleMillis = now;
+            lastRateSampleBytes = allocated;
+        } finally {
+            rateLock.unlock();
+        }
+
+        int pooled = 0;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            locks[i].lock();
+            try {
+                pooled += freeCount[i];
+            } finally {
+                locks[i].unlock();
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", getHits());
+        stats.put("misses", getMisses());
+        stats.put("allocatedBytes", allocated);
+        stats.put("allocatedBytesPerSecond", allocated * 1000.0 / Math.max(1, now - createdAtMillis));
+        stats.put("recentAllocatedBytesPerSecond", recentRate);
+        stats.put("discardedBuffers", discardedBuffers.sum());
+        stats.put("buffersInUse", outstanding.sum());
+        stats.put("buffersPooled", pooled);
+        return stats;
+    }
+}
@@ -0,0 +1,133 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+// Suppresses source frames that repeat the last forwarded one, so a static scene costs the
+// relay and its viewers next to nothing. "exact" compares a CRC32C of the whole JPEG.
+// "similar" is just as exact about the picture but ignores the headers: it compares a CRC32C
+// of the entropy-coded scan data only, so frames that differ only in a camera's timestamp in
+// a COM or APP segment, for one, count as repeats too. Frames from a live sensor differ by
+// noise and are not repeats in either mode; telling near-identical pictures apart would mean
+// decoding every frame on the broadcaster. Frames are compared with the last forwarded one,
+// not the previous one. A repeat is forwarded anyway once keepAliveMillis have passed, so
+// viewers and proxies never see the stream go quiet.
+public class FrameDeduplicator {
+    public enum Mode { OFF, EXACT, SIMILAR }
+
+    private final Mode mode;
+    private final long keepAliveMillis;
+
+    // Broadcaster thread only
+    private final CRC32C checksum = new CRC32C();
+    private long lastChecksum;
+    private int lastLength = -1;
+    private long lastForwardedMillis;
+
+    private final LongAdder forwardedFrames = new LongAdder();
+    private final LongAdder suppressedFrames = new LongAdder();
+    private final LongAdder keepAliveFrames = new LongAdder();
+    private final LongAdder suppressedBytes = new LongAdder();
+    private final LongAdder savedClientBytes = new LongAdder();
+
+    public FrameDeduplicator(Mode mode, long keepAliveMillis) {
+        this.mode = mode;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    public static Mode parseMode(String value) {
+        switch (value.trim().toLowerCase()) {
+            case "off":
+                return Mode.OFF;
+            case "exact":
+                return Mode.EXACT;
+            case "similar":
+                return Mode.SIMILAR;
+            default:
+                throw new IllegalArgumentException("Unknown frame dedup mode: " + value);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // True if the frame should be relayed. viewers is the number of clients that would have
+    // been sent it, used only to report the bandwidth saved. Broadcaster thread only.
+    public boolean accept(Frame frame, int viewers) {
+        if (mode == Mode.OFF) {
+            return true;
+        }
+        // Own position over the shared view, the clients' writers read the same frame
+        ByteBuffer compared = frame.payloadBuffer().duplicate();
+        if (mode == Mode.SIMILAR) {
+            compared.position(scanDataStart(compared, frame.length()));
+        }
+        int length = compared.remaining();
+        checksum.reset();
+        checksum.update(compared);
+        long value = checksum.getValue();
+        if (lastLength >= 0 && value == lastChecksum && length == lastLength) {
+            if (frame.timestampMillis() - lastForwardedMillis < keepAliveMillis) {
+                suppressedFrames.increment();
+                suppressedBytes.add(frame.wireLength());
+                savedClientBytes.add((long) frame.wireLength() * viewers);
+                return false;
+            }
+            keepAliveFrames.increment();
+        }
+
+        lastChecksum = value;
+        lastLength = length;
+        lastForwardedMillis = frame.timestampMillis();
+        forwardedFrames.increment();
+        return true;
+    }
+
+    // Offset just past the first SOS segment's header, or 0 when the markers don't lead there.
+    // Reads with absolute gets.
+    static int scanDataStart(ByteBuffer jpeg, int length) {
+        int i = 2; // SOI
+        while (i + 4 <= length) {
+            if ((jpeg.get(i) & 0xff) != 0xff) {
+                return 0;
+            }
+            int marker = jpeg.get(i + 1) & 0xff;
+            if (marker == 0xff) {
+                i++; // fill byte
+                continue;
+            }
+            if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd8) {
+                i += 2; // standalone marker
+                continue;
+            }
+            int segmentLength = (jpeg.get(i + 2) & 0xff) << 8 | jpeg.get(i + 3) & 0xff;
+            if (marker == 0xda) {
+                return Math.min(length, i + 2 + segmentLength);
+            }
+            i += 2 + segmentLength;
+        }
+        return 0;
+    }
+
+    // Forget the last frame, e.g. after the source reconnects
+    public void reset() {
+        lastLength = -1;
+    }
+
+    // Snapshot of the dedup counters for the statistics endpoint
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode.name().toLowerCase());
+        stats.put("keepAliveMillis", keepAliveMillis);
+        stats.put("forwardedFrames", forwardedFrames.sum());
+        stats.put("suppressedFrames", suppressedFrames.sum());
+        stats.put("keepAliveFrames", keepAliveFrames.sum());
+        stats.put("suppressedBytes", suppressedBytes.sum());
+        stats.put("savedClientBytes", savedClientBytes.sum());
+        return stats;
+    }
+}
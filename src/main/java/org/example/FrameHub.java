@@ -0,0 +1,63 @@
+package org.example;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Fan-out point for one stream of frames (the camera source, or a transcoded profile).
+// Keeps the most recent frames for late joiners and hands every new frame to each subscriber.
+public class FrameHub {
+    private final String name;
+    private final FrameRingBuffer frames;
+    private final CopyOnWriteArrayList<StreamSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    public FrameHub(String name, FrameRingBuffer frames) {
+        this.name = name;
+        this.frames = frames;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FrameRingBuffer getFrames() {
+        return frames;
+    }
+
+    public void publish(Frame frame) {
+        frames.add(frame);
+        for (StreamSubscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    // Hands a frame to the current subscribers without adding it to the ring, for stale
+    // repeats that late joiners and snapshots should not see
+    public void resend(Frame frame) {
+        for (StreamSubscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    // Starts the subscriber on a clean frame boundary with the most recent complete frame
+    public void subscribe(StreamSubscriber subscriber) {
+        Frame latest = frames.retainLatest();
+        if (latest != null) {
+            subscriber.offer(latest);
+            latest.release();
+        }
+        subscribers.add(subscriber);
+        RelayMetrics.CLIENT_CONNECTIONS.increment();
+    }
+
+    public boolean unsubscribe(StreamSubscriber subscriber) {
+        return subscribers.remove(subscriber);
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    public List<StreamSubscriber> getSubscribers() {
+        return subscribers;
+    }
+}
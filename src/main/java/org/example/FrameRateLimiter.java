@@ -0,0 +1,33 @@
+package org.example;
+
+// Decides per client which frames to pass on so a viewer gets roughly maxFps whole frames
+// per second. Frames it rejects are never queued or copied for that client.
+public class FrameRateLimiter {
+    // Accept a frame slightly early so jitter in source timing doesn't skip a whole extra frame
+    private static final double INTERVAL_TOLERANCE = 0.9;
+
+    private final long minIntervalMillis;
+    private long lastAcceptedMillis = Long.MIN_VALUE;
+
+    // maxFps <= 0 means no limit
+    public FrameRateLimiter(double maxFps) {
+        this.minIntervalMillis = maxFps > 0 ? (long) (1000.0 / maxFps * INTERVAL_TOLERANCE) : 0;
+    }
+
+    public boolean isLimited() {
+        return minIntervalMillis > 0;
+    }
+
+    // Not thread-safe, callers serialize calls per client
+    public boolean accept(Frame frame) {
+        if (minIntervalMillis == 0) {
+            return true;
+        }
+        long timestamp = frame.timestampMillis();
+        if (lastAcceptedMillis != Long.MIN_VALUE && timestamp - lastAcceptedMillis < minIntervalMillis) {
+            return false;
+        }
+        lastAcceptedMillis = timestamp;
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed-size ring holding the last N frames received from the source. The ring keeps
+// its own reference to every frame it holds and releases it when the slot is reused.
+public class FrameRingBuffer {
+    private final Frame[] frames;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAdded = lock.newCondition();
+    private long count = 0;
+
+    public FrameRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Frame ring capacity must be at least 1, got " + capacity);
+        }
+        this.frames = new Frame[capacity];
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    public void add(Frame frame) {
+        frame.retain();
+        Frame evicted;
+        lock.lock();
+        try {
+            int slot = (int) (count % frames.length);
+            evicted = frames[slot];
+            frames[slot] = frame;
+            count++;
+            frameAdded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) {
+            evicted.release();
+        }
+    }
+
+    // Most recent complete frame with a reference taken for the caller, who must release it,
+    // or null if nothing has been received yet
+    public Frame retainLatest() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            Frame latest = frames[(int) ((count - 1) % frames.length)];
+            latest.retain();
+            return latest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits up to timeoutMillis for a frame newer than afterSequence and returns the latest one,
+    // retained for the caller, or null if none arrived in time
+    public Frame awaitNewer(long afterSequence, long timeoutMillis) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (count == 0 || frames[(int) ((count - 1) % frames.length)].sequence() <= afterSequence) {
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                remainingNanos = frameAdded.awaitNanos(remainingNanos);
+            }
+            Frame latest = frames[(int) ((count - 1) % frames.length)];
+            latest.retain();
+            return latest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops every buffered frame, e.g. when they are known to be stale
+    public void clear() {
+        List<Frame> cleared = new ArrayList<>(frames.length);
+        lock.lock();
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                if (frames[i] != null) {
+                    cleared.add(frames[i]);
+                    frames[i] = null;
+                }
+            }
+            count = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (Frame frame : cleared) {
+            frame.release();
+        }
+    }
+
+    // Buffered frames, oldest first, each retained for the caller who must release them
+    public List<Frame> retainRecent() {
+        lock.lock();
+        try {
+            int size = (int) Math.min(count, frames.length);
+            List<Frame> result = new ArrayList<>(size);
+            for (long i = count - size; i < count; i++) {
+                Frame frame = frames[(int) (i % frames.length)];
+                frame.retain();
+                result.add(frame);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// A connection to the camera that yields whole JPEG frames in pooled buffers:
+// the multipart HTTP stream (MjpegFrameReader) or the C server's Unix socket (UnixSocketFrameReader).
+public interface FrameSource extends Closeable {
+    // Reads the next frame into a buffer from the pool, or returns null at end of stream
+    Frame readFrame(FrameBufferPool pool, long sequence) throws IOException;
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-bucket histogram with striped counters, cheap enough to observe on every frame from
+// many threads. Values are recorded in the caller's unit and scaled only when exported.
+public class Histogram {
+    private final long[] upperBounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    // upperBounds must be ascending; a final +Inf bucket is added
+    public Histogram(long... upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // Exponential bounds: start, start * factor, ... count values
+    public static Histogram exponential(long start, int factor, int count) {
+        long[] bounds = new long[count];
+        long bound = start;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return new Histogram(bounds);
+    }
+
+    public void observe(long value) {
+        int index = 0;
+        while (index < upperBounds.length && value > upperBounds[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        sum.add(value);
+    }
+
+    // Appends the series in Prometheus text format as name_bucket, name_sum and name_count,
+    // with labels (e.g. engine="nio") and bounds multiplied by scale
+    public void writeTo(StringBuilder out, String name, String labels, double scale) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String le = i < upperBounds.length ? formatValue(upperBounds[i] * scale) : "+Inf";
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(le).append("\"} ")
+               .append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(formatValue(sum.sum() * scale)).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+
+    static String formatValue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+}
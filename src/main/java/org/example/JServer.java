@@ -2,17 +2,27 @@ package org.example;
 
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.nio.charset.StandardCharsets;
 
@@ -20,76 +30,130 @@ import java.nio.charset.StandardCharsets;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class JServer {
-    private final CopyOnWriteArrayList<OutputStream> streamClients = new CopyOnWriteArrayList<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private static final long MAX_SNAPSHOT_WAIT_MILLIS = 30_000;
+    private static final int VIDEOS_PAGE_SIZE = 100;
+    private static final int MAX_CLIPS_API_LIMIT = 1000;
+
+    private final ExecutorService executor;
+    private final String executionMode;
+    private final Map<String, CameraPipeline> cameras = new LinkedHashMap<>();
+    private final CameraPipeline defaultCamera;
+    private final FrameBufferPool framePool;
+    private final int clientQueueSize;
+    private final double defaultStreamFps;
+    private final String streamEngine;
+    private final NioStreamServer nioStreamServer;
+    private final StaticAssets staticAssets = new StaticAssets();
+    private final CleanupManager retention;
+    private final ScheduledExecutorService sourceWatchdog =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("source-watchdog").daemon(true).factory());
 
-    private final String sourceUrl;
     private final int relayPort;
+    private final long serverStartTimeMillis;
 
-    private volatile boolean isRecording = false;
-    private Process recordingProcess = null;
-    private static String RECORDING_CLIPS_DIR;
-    private static String CAMERA_DEVICE_PATH;
-    private static String FFMPEG_LOG_FILE;
-    private final File ffmpegLogFile;
-    private long serverStartTimeMillis = 0;
-    private long recordingStartTimeMillis = -1;
-    private boolean toResetCameraStream = false;
-
-    public JServer(String sourceUrl, int relayPort) throws FileNotFoundException {
-        this.sourceUrl = sourceUrl;
+    public JServer(List<CameraConfig> cameraConfigs, int relayPort, Config config) {
         this.relayPort = relayPort;
+        this.serverStartTimeMillis = System.currentTimeMillis();
 
-        var config = ConfigParser.parse("jserver.conf");
-        RECORDING_CLIPS_DIR = config.RECORDING_CLIPS_DIR();
-        CAMERA_DEVICE_PATH = config.CAMERA_DEVICE_PATH();
-        FFMPEG_LOG_FILE = config.FFMPEG_LOG_FILE();
-        System.out.println("Recording Path: " + RECORDING_CLIPS_DIR);
-        System.out.println("Camera Device Path: " + CAMERA_DEVICE_PATH);
-        System.out.println("FFMPEG Log File Path: " + FFMPEG_LOG_FILE);
-
-        new java.io.File(config.RECORDING_CLIPS_DIR()).mkdirs();
-        this.ffmpegLogFile = new File(config.FFMPEG_LOG_FILE());
-
-        try {
-            if (!ffmpegLogFile.exists()) {
-                ffmpegLogFile.createNewFile();
-            }
-        } catch (IOException e) {
-            System.err.println("Warning: Could not create FFmpeg log file at " + config.FFMPEG_LOG_FILE() + ": " + e.getMessage());
+        // One pool for every camera, idle buffers of one camera serve the others
+        this.framePool = new FrameBufferPool(config.FRAME_POOL_MAX_FREE_BUFFERS());
+        for (CameraConfig camera : cameraConfigs) {
+            cameras.put(camera.name(), new CameraPipeline(camera, config, framePool));
         }
-
-        this.serverStartTimeMillis = System.currentTimeMillis();
+        this.defaultCamera = cameras.values().iterator().next();
+        this.retention = new CleanupManager(new ArrayList<>(cameras.values()), config.RETENTION_MAX_CLIPS_MB() * 1024 * 1024,
+                config.RETENTION_MIN_FREE_MB() * 1024 * 1024, TimeUnit.SECONDS.toMillis(config.RETENTION_INTERVAL_SECONDS()));
+        this.executionMode = config.EXECUTION_MODE();
+        if ("virtual".equals(executionMode)) {
+            // Long-lived /stream and /clips/ connections park instead of holding a platform thread
+            this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            this.executor = Executors.newCachedThreadPool();
+        }
+        this.clientQueueSize = config.STREAM_CLIENT_QUEUE_SIZE();
+        this.defaultStreamFps = config.STREAM_DEFAULT_FPS();
+        this.streamEngine = config.STREAM_ENGINE();
+        if ("nio".equals(streamEngine)) {
+            this.nioStreamServer = new NioStreamServer(config.NIO_STREAM_PORT(), config.NIO_SELECTOR_THREADS(),
+                    clientQueueSize, defaultStreamFps, this::resolveStreamHub);
+        } else {
+            this.nioStreamServer = null;
+        }
+        System.out.println("Cameras: " + String.join(", ", cameras.keySet()));
+        System.out.println("Frame Buffer Size: " + config.FRAME_BUFFER_SIZE() + " frames");
+        for (StreamProfile profile : config.STREAM_PROFILES()) {
+            System.out.println("Stream Profile: " + profile.name() + " " + profile.width() + "x" + profile.height() +
+                    " quality " + profile.quality());
+        }
+        System.out.println("Stream Client Queue Size: " + clientQueueSize + " frames");
+        System.out.println("Stream Engine: " + streamEngine);
+        System.out.println("Default Stream FPS: " + (defaultStreamFps > 0 ? defaultStreamFps : "source rate"));
+        System.out.println("Execution Mode: " + executionMode);
+        System.out.println("Frame Dedup: " + defaultCamera.getDeduplicator().getMode().name().toLowerCase());
     }
 
     public void start() throws Exception {
-        // Start background broadcaster
-        executor.submit(this::broadcastFrames);
+        for (CameraPipeline camera : cameras.values()) {
+            camera.start();
+        }
+
+        if (nioStreamServer != null) {
+            nioStreamServer.start();
+        }
+        retention.start();
+        // Checks every camera's inter-frame gap several times per stall timeout, and keeps the
+        // viewers of a silent source on its last good frame
+        sourceWatchdog.scheduleWithFixedDelay(() -> {
+            for (CameraPipeline camera : cameras.values()) {
+                camera.checkStall();
+                camera.serveStaleFrames();
+            }
+        }, 250, 250, TimeUnit.MILLISECONDS);
+
+        // The dashboard revalidates on every load, which is a 304 while it is unchanged
+        staticAssets.add("index.html", "text/html; charset=UTF-8", "no-cache");
+        staticAssets.add("style.css", "text/css; charset=UTF-8", "public, max-age=3600");
 
         HttpServer server = HttpServer.create(new InetSocketAddress(relayPort), 0);
 
-        server.createContext("/", this::handleHomepageRequest);
-        server.createContext("/style.css", this::handleCssRequest);
-        server.createContext("/stream", this::handleStreamRequest);
-        server.createContext("/record", this::handleRecordRequest);
-        server.createContext("/videos", this::handleVideosRequest);
-        server.createContext("/clips/", this::handleClipDownload);
-        server.createContext("/statistics", this::handleStatistics);
-        server.createContext("/delete", this::handleDelete);
-        server.createContext("/reset", this::handleReset);
-
-        // Using shared thread pool for handling requests
+        createContext(server, "/", this::handleHomepageRequest);
+        createContext(server, "/style.css", this::handleCssRequest);
+        createContext(server, "/stream", this::handleStreamRequest);
+        createContext(server, "/snapshot", this::handleSnapshotRequest);
+        createContext(server, "/record", this::handleRecordRequest);
+        createContext(server, "/videos", this::handleVideosRequest);
+        createContext(server, "/api/clips", this::handleClipsApiRequest);
+        createContext(server, "/api/events", this::handleEventsApiRequest);
+        createContext(server, "/clips/", this::handleClipDownload);
+        createContext(server, "/extract", this::handleExtractRequest);
+        createContext(server, "/statistics", this::handleStatistics);
+        createContext(server, "/metrics", this::handleMetrics);
+        createContext(server, "/delete", this::handleDelete);
+        createContext(server, "/reset", this::handleReset);
+
+        // Request handlers (and with the threaded engine, stream senders) run on the executor
         server.setExecutor(executor);
         server.start();
 
         System.out.println("Relay ready: http://0.0.0.0:" + relayPort);
         System.out.println("Homepage at http://0.0.0.0:" + relayPort + "/");
         System.out.println("Stream at http://0.0.0.0:" + relayPort + "/stream");
+        for (String name : cameras.keySet()) {
+            System.out.println("Camera '" + name + "' stream at http://0.0.0.0:" + relayPort + "/stream/" + name);
+        }
+        if (nioStreamServer != null) {
+            System.out.println("NIO stream engine at http://0.0.0.0:" + nioStreamServer.getPort() + "/stream");
+        }
+        System.out.println("Snapshot at http://0.0.0.0:" + relayPort + "/snapshot");
         System.out.println("CSS at http://0.0.0.0:" + relayPort + "/style.css");
         System.out.println("Recording control at http://0.0.0.0:" + relayPort + "/record (POST)");
         System.out.println("Videos list at http://0.0.0.0:" + relayPort + "/videos");
         System.out.println("Clips served from http://0.0.0.0:" + relayPort + "/clips/");
+        System.out.println("Clip index (JSON) at http://0.0.0.0:" + relayPort + "/api/clips");
+        System.out.println("Motion events (JSON) at http://0.0.0.0:" + relayPort + "/api/events");
+        System.out.println("Time window extraction at http://0.0.0.0:" + relayPort + "/extract?from=&to=");
         System.out.println("Statistics at http://0.0.0.0:" + relayPort + "/statistics");
+        System.out.println("Metrics at http://0.0.0.0:" + relayPort + "/metrics");
         System.out.println("Delete files at http://0.0.0.0:" + relayPort + "/delete");
         System.out.println("Reset Webcam Stream at http://0.0.0.0:" + relayPort + "/reset");
 
@@ -98,6 +162,14 @@ public class JServer {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down server and executor.");
             server.stop(0);
+            if (nioStreamServer != null) {
+                nioStreamServer.stop();
+            }
+            retention.stop();
+            sourceWatchdog.shutdownNow();
+            for (CameraPipeline camera : cameras.values()) {
+                camera.stop();
+            }
             executor.shutdown();
             try {
                 if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -111,32 +183,6 @@ public class JServer {
         }));
     }
 
-    // Reads resources (like static files) from the classpath (src/main/resources)
-    private byte[] readResource(String resourcePath) throws IOException {
-        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-        if (classLoader == null) {
-            classLoader = ClassLoader.getSystemClassLoader();
-        }
-
-        // Ensure path is relative to classpath root, exclude leading /
-        String cleanResourcePath = resourcePath.startsWith("/") ? resourcePath.substring(1) : resourcePath;
-
-        try (InputStream is = classLoader.getResourceAsStream(cleanResourcePath)) {
-            if (is == null) {
-                throw new IOException("Resource not found: " + cleanResourcePath);
-            }
-
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            byte[] data = new byte[1024];
-            int nRead;
-            while ((nRead = is.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
-            }
-            buffer.flush();
-            return buffer.toByteArray();
-        }
-    }
-
     // Handle resetting MJPEG stream connection
     private void handleReset(HttpExchange exchange) throws IOException {
         if (!"POST".equals(exchange.getRequestMethod())) {
@@ -153,10 +199,16 @@ public class JServer {
         String responseMsg;
         int statusCode;
 
-        if (requestBody != null && requestBody.startsWith("reset=")) {
-            String resetStr = requestBody.substring("reset=".length()).trim();
+        // reset=true, optionally with &camera=name for a camera other than the first
+        Map<String, String> params = QueryParams.parse(requestBody);
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null) {
+            responseMsg = "Unknown camera '" + params.get("camera") + "'.";
+            statusCode = 404;
+        } else if (params.containsKey("reset")) {
+            String resetStr = params.get("reset").trim();
             if (resetStr.equals("true")) {
-                toResetCameraStream = true;
+                camera.requestReset();
                 responseMsg = "Set camera Reset to True";
                 statusCode = 200;
             } else {
@@ -194,10 +246,21 @@ public class JServer {
         String responseMsg;
         int statusCode;
 
-        if (requestBody != null && requestBody.startsWith("days=")) {
-            String daysStr = requestBody.substring("days=".length()).trim();
+        // days=x applies to every camera, &camera=name limits it to one
+        Map<String, String> params = QueryParams.parse(requestBody);
+        String cameraName = params.get("camera");
+        if (cameraName != null && !cameras.containsKey(cameraName)) {
+            responseMsg = "Unknown camera '" + cameraName + "'.";
+            statusCode = 404;
+        } else if (params.containsKey("days")) {
+            String daysStr = params.get("days").trim();
             int days = Integer.parseInt(daysStr);
-            int countOfDeletedFiles = CleanupManager.deleteFilesOlderThan(RECORDING_CLIPS_DIR, days);
+            int countOfDeletedFiles = 0;
+            for (CameraPipeline camera : cameras.values()) {
+                if (cameraName == null || cameraName.equals(camera.getName())) {
+                    countOfDeletedFiles += CleanupManager.deleteFilesOlderThan(camera.getClipsDir(), days);
+                }
+            }
             if (countOfDeletedFiles == 0) {
                 responseMsg = "0 Files deleted.";
                 statusCode = 200;
@@ -238,7 +301,43 @@ public class JServer {
         diskInfo.put("usableSpace", diskStatistics.get(2));
         diskInfo.put("usableSpaceFormatted", DiskStatistics.formatSize(diskStatistics.get(2)));
         diskInfo.put("serverStartTimeMillis", serverStartTimeMillis);
-        diskInfo.put("recordingStartTimeMillis", recordingStartTimeMillis);
+        // The top-level recording and clip figures are the first camera's, as the dashboard expects
+        ClipCatalog clipCatalog = defaultCamera.getClipCatalog();
+        diskInfo.put("recordingStartTimeMillis", defaultCamera.getRecordingStartTimeMillis());
+        diskInfo.put("clipCount", clipCatalog.size());
+        diskInfo.put("clipBytes", clipCatalog.totalBytes());
+        diskInfo.put("clipBytesFormatted", DiskStatistics.formatSize(clipCatalog.totalBytes()));
+
+        List<Map<String, Object>> clientStats = new ArrayList<>();
+        List<Map<String, Object>> cameraStats = new ArrayList<>();
+        for (CameraPipeline camera : cameras.values()) {
+            for (FrameHub hub : camera.hubs()) {
+                for (StreamSubscriber client : hub.getSubscribers()) {
+                    Map<String, Object> stats = client.toStatistics();
+                    stats.put("camera", camera.getName());
+                    stats.put("profile", hub.getName());
+                    clientStats.add(stats);
+                }
+            }
+            Map<String, Object> stats = camera.toStatistics();
+            List<Map<String, Object>> profileStats = new ArrayList<>();
+            for (ProfileTranscoder transcoder : camera.getTranscoders()) {
+                profileStats.add(transcoder.toStatistics());
+            }
+            stats.put("streamProfiles", profileStats);
+            cameraStats.add(stats);
+        }
+        diskInfo.put("streamClients", clientStats);
+        diskInfo.put("cameras", cameraStats);
+
+        List<Map<String, Object>> profileStats = new ArrayList<>();
+        for (ProfileTranscoder transcoder : defaultCamera.getTranscoders()) {
+            profileStats.add(transcoder.toStatistics());
+        }
+        diskInfo.put("streamProfiles", profileStats);
+        diskInfo.put("framePool", framePool.toStatistics());
+        diskInfo.put("retention", retention.toStatistics());
+        diskInfo.put("frameDedup", defaultCamera.getDeduplicator().toStatistics());
 
         ObjectMapper mapper = new ObjectMapper();
         String jsonResponse = mapper.writeValueAsString(diskInfo);
@@ -255,74 +354,337 @@ public class JServer {
         System.out.println("Sent Statistics to client");
     }
 
-    // Handles requests for the homepage
-    private void handleHomepageRequest(HttpExchange exchange) throws IOException {
+    // Registers a handler with request timing and status counting for /metrics
+    private static void createContext(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, handler).getFilters().add(RelayMetrics.httpFilter(path));
+    }
+
+    // Prometheus text exposition of the relay counters plus gauges read at scrape time
+    private void handleMetrics(HttpExchange exchange) throws IOException {
         if (!"GET".equals(exchange.getRequestMethod())) {
             exchange.sendResponseHeaders(405, -1);
             return;
         }
 
-        byte[] htmlBytes;
-        try {
-            htmlBytes = readResource("index.html");
-        } catch (IOException e) {
-            System.err.println("Error serving index.html: " + e.getMessage());
-            exchange.sendResponseHeaders(500, -1);
-            return;
+        StringBuilder out = new StringBuilder(16 * 1024);
+        RelayMetrics.writeTo(out);
+
+        RelayMetrics.header(out, "relay_stream_clients", "gauge", "Connected stream clients per camera and profile.");
+        for (CameraPipeline camera : cameras.values()) {
+            for (FrameHub hub : camera.hubs()) {
+                RelayMetrics.sample(out, "relay_stream_clients", cameraLabel(camera) + ",profile=\"" +
+                        RelayMetrics.escape(hub.getName()) + "\"", hub.subscriberCount());
+            }
+        }
+
+        // Per-client series only exist while the client is connected
+        List<String> clientLabels = new ArrayList<>();
+        List<StreamSubscriber> clients = new ArrayList<>();
+        for (CameraPipeline camera : cameras.values()) {
+            for (FrameHub hub : camera.hubs()) {
+                for (StreamSubscriber client : hub.getSubscribers()) {
+                    clients.add(client);
+                    clientLabels.add("client=\"" + client.getId() + "\"," + cameraLabel(camera) + ",profile=\"" +
+                            RelayMetrics.escape(hub.getName()) + "\",engine=\"" + client.toStatistics().get("engine") + "\"");
+                }
+            }
+        }
+        RelayMetrics.header(out, "relay_stream_client_queue_depth", "gauge", "Frames waiting in a client's queue.");
+        for (int i = 0; i < clients.size(); i++) {
+            RelayMetrics.sample(out, "relay_stream_client_queue_depth", clientLabels.get(i), clients.get(i).getQueuedFrames());
+        }
+        RelayMetrics.header(out, "relay_stream_client_sent_frames_total", "counter", "Frames written to a client.");
+        for (int i = 0; i < clients.size(); i++) {
+            RelayMetrics.sample(out, "relay_stream_client_sent_frames_total", clientLabels.get(i), clients.get(i).getSentFrames());
+        }
+        RelayMetrics.header(out, "relay_stream_client_dropped_frames_total", "counter",
+                "Frames dropped from a client's full queue.");
+        for (int i = 0; i < clients.size(); i++) {
+            RelayMetrics.sample(out, "relay_stream_client_dropped_frames_total", clientLabels.get(i),
+                    clients.get(i).getDroppedFrames());
+        }
+        RelayMetrics.header(out, "relay_stream_client_frame_write_seconds", "histogram",
+                "Time to write one frame to a client.");
+        for (int i = 0; i < clients.size(); i++) {
+            clients.get(i).getWriteLatency().writeTo(out, "relay_stream_client_frame_write_seconds", clientLabels.get(i), 1e-9);
         }
 
+        RelayMetrics.header(out, "relay_camera_source_connected", "gauge", "1 while the camera's source stream is connected.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_connected", cameraLabel(camera), camera.isSourceConnected() ? 1 : 0);
+        }
+        RelayMetrics.header(out, "relay_camera_source_last_frame_age_seconds", "gauge", "Time since the camera's last source frame.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_last_frame_age_seconds", cameraLabel(camera),
+                    camera.getLastFrameAgeMillis() / 1000.0);
+        }
+        RelayMetrics.header(out, "relay_camera_source_stalls_total", "counter", "Stalls the watchdog detected on the camera's source.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_stalls_total", cameraLabel(camera), camera.getSourceStalls());
+        }
+        RelayMetrics.header(out, "relay_camera_source_frames_total", "counter", "Frames read from the camera's source.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_frames_total", cameraLabel(camera), camera.getSourceFrames());
+        }
+        RelayMetrics.header(out, "relay_camera_source_frames_per_second", "gauge", "Source frames in the camera's last whole second.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_frames_per_second", cameraLabel(camera), camera.getSourceFramesPerSecond());
+        }
+        RelayMetrics.header(out, "relay_camera_source_bytes_per_second", "gauge", "Source JPEG bytes in the camera's last whole second.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_camera_source_bytes_per_second", cameraLabel(camera), camera.getSourceBytesPerSecond());
+        }
+        RelayMetrics.header(out, "relay_recording_active", "gauge", "1 while ffmpeg is recording.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_recording_active", cameraLabel(camera), camera.isRecording() ? 1 : 0);
+        }
+        RelayMetrics.header(out, "relay_recording_uptime_seconds", "gauge", "Time since the current recording started.");
+        for (CameraPipeline camera : cameras.values()) {
+            long recordingStarted = camera.getRecordingStartTimeMillis();
+            RelayMetrics.sample(out, "relay_recording_uptime_seconds", cameraLabel(camera),
+                    camera.isRecording() && recordingStarted > 0 ? (System.currentTimeMillis() - recordingStarted) / 1000.0 : 0);
+        }
+
+        RelayMetrics.single(out, "relay_frame_pool_allocated_bytes_total", "counter",
+                "Bytes the frame pool allocated for new buffers.", framePool.getAllocatedBytes());
+        RelayMetrics.single(out, "relay_frame_pool_misses_total", "counter",
+                "Frame buffer requests the pool could not serve from free buffers.", framePool.getMisses());
+        RelayMetrics.single(out, "relay_retention_deleted_clips_total", "counter",
+                "Clips deleted by quota and free-space retention.", retention.getDeletedClips());
+        RelayMetrics.single(out, "relay_retention_deleted_bytes_total", "counter",
+                "Bytes freed by quota and free-space retention.", retention.getDeletedBytes());
+        RelayMetrics.header(out, "relay_clips", "gauge", "Recorded clips in the catalog.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_clips", cameraLabel(camera), camera.getClipCatalog().size());
+        }
+        RelayMetrics.header(out, "relay_clip_bytes", "gauge", "Total size of recorded clips.");
+        for (CameraPipeline camera : cameras.values()) {
+            RelayMetrics.sample(out, "relay_clip_bytes", cameraLabel(camera), camera.getClipCatalog().totalBytes());
+        }
+
+        byte[] responseBytes = out.toString().getBytes(StandardCharsets.UTF_8);
         Headers headers = exchange.getResponseHeaders();
-        headers.set("Content-Type", "text/html; charset=UTF-8");
-        exchange.sendResponseHeaders(200, htmlBytes.length);
+        headers.set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, responseBytes.length);
 
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(htmlBytes);
+            os.write(responseBytes);
         }
     }
 
+    private static String cameraLabel(CameraPipeline camera) {
+        return "camera=\"" + RelayMetrics.escape(camera.getName()) + "\"";
+    }
+
+    // Handles requests for the homepage. The "/" context also catches unknown paths, which
+    // get the homepage as before.
+    private void handleHomepageRequest(HttpExchange exchange) throws IOException {
+        staticAssets.serve(exchange, "index.html");
+    }
+
     // Handles requests for the CSS file
     private void handleCssRequest(HttpExchange exchange) throws IOException {
+        staticAssets.serve(exchange, "style.css");
+    }
+
+
+    // Handles requests for the MJPEG stream (/stream)
+    private void handleStreamRequest(HttpExchange exchange) throws IOException {
         if (!"GET".equals(exchange.getRequestMethod())) {
             exchange.sendResponseHeaders(405, -1);
             return;
         }
 
-        byte[] cssBytes;
-        try {
-            cssBytes = readResource("style.css");
-        } catch (IOException e) {
-            System.err.println("Error serving style.css: " + e.getMessage());
+        Headers headers = exchange.getResponseHeaders();
+
+        // With the NIO engine viewers are served from its own port, send them there
+        if (nioStreamServer != null) {
+            headers.set("Location", "http://" + requestHostName(exchange) + ":" + nioStreamServer.getPort() +
+                    exchange.getRequestURI().getRawPath() +
+                    (exchange.getRequestURI().getRawQuery() != null ? "?" + exchange.getRequestURI().getRawQuery() : ""));
+            headers.set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(307, -1);
+            exchange.close();
+            return;
+        }
+
+        // /stream/{camera} picks a camera other than the first, ?profile=name a reduced variant,
+        // ?fps=N (fractions too, e.g. 0.5) asks for only every k-th whole frame
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        CameraPipeline camera = cameraFromPath(exchange, "/stream");
+        FrameHub hub = camera != null ? camera.resolveHub(params.get("profile")) : null;
+        if (hub == null) {
             exchange.sendResponseHeaders(404, -1);
             return;
         }
+        double maxFps = QueryParams.getPositiveDouble(params, "fps", defaultStreamFps);
+        if (Double.isNaN(maxFps)) {
+            // A client asking for a low rate must not silently get the full one
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
 
-        Headers headers = exchange.getResponseHeaders();
-        headers.set("Content-Type", "text/css; charset=UTF-8");
-        exchange.sendResponseHeaders(200, cssBytes.length);
+        headers.set("Content-Type", "multipart/x-mixed-replace; boundary=" + Frame.BOUNDARY);
+        exchange.sendResponseHeaders(200, 0);
 
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(cssBytes);
+        StreamClient client = new StreamClient(String.valueOf(exchange.getRemoteAddress()),
+                exchange.getResponseBody(), clientQueueSize, maxFps);
+
+        hub.subscribe(client);
+        System.out.println("Stream client " + client.getId() + " connected to '" + camera.getName() + "/" +
+                hub.getName() + "'. Clients on it: " + hub.subscriberCount());
+
+        // This handler thread is the client's sender until it disconnects
+        try {
+            client.run();
+        } finally {
+            hub.unsubscribe(client);
+            System.out.println("Stream client " + client.getId() + " removed after " + client.getSentFrames() +
+                    " frames sent, " + client.getDroppedFrames() + " dropped. Clients on '" + camera.getName() + "/" + hub.getName() +
+                    "': " + hub.subscriberCount());
         }
     }
 
-
-    // Handles requests for the MJPEG stream (/stream)
-    private void handleStreamRequest(HttpExchange exchange) throws IOException {
-        if (!"GET".equals(exchange.getRequestMethod())) {
+    // Handles requests for the latest still frame (/snapshot), served straight from memory.
+    // The ETag carries the frame sequence: a matching If-None-Match gets 304, and with
+    // ?wait=ms the request is held until a newer frame arrives (long-polling).
+    // /snapshot/{camera} serves a camera other than the first.
+    private void handleSnapshotRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
             exchange.sendResponseHeaders(405, -1);
             return;
         }
+        CameraPipeline camera = cameraFromPath(exchange, "/snapshot");
+        if (camera == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        FrameRingBuffer frameBuffer = camera.getFrameBuffer();
+
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        long waitMillis = Math.max(0, Math.min(QueryParams.getLong(params, "wait", 0), MAX_SNAPSHOT_WAIT_MILLIS));
+        long knownSequence = parseSnapshotETag(exchange.getRequestHeaders().getFirst("If-None-Match"));
 
         Headers headers = exchange.getResponseHeaders();
+        headers.set("Cache-Control", "no-cache");
 
-        headers.set("Content-Type", "multipart/x-mixed-replace; boundary=--frame");
-        exchange.sendResponseHeaders(200, 0);
+        Frame frame = frameBuffer.retainLatest();
+        try {
+            if (waitMillis > 0) {
+                // Without an ETag a long-poll waits for the frame after the current one
+                long afterSequence = knownSequence >= 0 ? knownSequence : (frame != null ? frame.sequence() : -1);
+                if (frame == null || frame.sequence() <= afterSequence) {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                    frame = frameBuffer.awaitNewer(afterSequence, waitMillis);
+                }
+            }
 
-        // Get client's output stream
-        OutputStream clientStream = exchange.getResponseBody();
+            if (frame == null && knownSequence < 0) {
+                headers.set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            if (frame == null || frame.sequence() == knownSequence) {
+                headers.set("ETag", snapshotETag(knownSequence));
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
 
-        streamClients.add(clientStream);
-        System.out.println("Stream client connected. Total stream clients: " + streamClients.size());
+            headers.set("Content-Type", "image/jpeg");
+            headers.set("ETag", snapshotETag(frame.sequence()));
+            headers.set("X-Frame-Timestamp", String.valueOf(frame.timestampMillis()));
+            if (camera.isSourceStale()) {
+                // The source is down, this is the last good frame
+                headers.set("X-Frame-Stale", String.valueOf(Math.max(0, System.currentTimeMillis() - frame.timestampMillis())));
+            }
+            if ("HEAD".equals(method)) {
+                headers.set("Content-Length", String.valueOf(frame.length()));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, frame.length());
+            try (OutputStream os = exchange.getResponseBody()) {
+                frame.writePayloadTo(os, new byte[16 * 1024]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+            exchange.close();
+        }
+    }
+
+    // Frame sequences restart with the process, so the ETag also carries the server start time
+    private String snapshotETag(long sequence) {
+        return "\"" + Long.toHexString(serverStartTimeMillis) + "-" + sequence + "\"";
+    }
+
+    // Frame sequence from an If-None-Match header issued by this server instance, or -1
+    private long parseSnapshotETag(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return -1;
+        }
+        String prefix = "\"" + Long.toHexString(serverStartTimeMillis) + "-";
+        String tag = ifNoneMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (!tag.startsWith(prefix) || !tag.endsWith("\"") || tag.length() <= prefix.length() + 1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(tag.substring(prefix.length(), tag.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Camera named by a camera parameter, the first camera when none is given, or null for
+    // an unknown name
+    private CameraPipeline resolveCamera(String name) {
+        if (name == null || name.isEmpty()) {
+            return defaultCamera;
+        }
+        return cameras.get(name);
+    }
+
+    // Camera addressed by the request path: the first camera for the bare prefix, a named one
+    // for prefix/{camera}, or null for anything else
+    private CameraPipeline cameraFromPath(HttpExchange exchange, String prefix) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals(prefix)) {
+            return defaultCamera;
+        }
+        if (path.startsWith(prefix + "/")) {
+            return cameras.get(path.substring(prefix.length() + 1));
+        }
+        return null;
+    }
+
+    // Hub for the NIO engine, null when the camera or profile is unknown
+    private FrameHub resolveStreamHub(String camera, String profile) {
+        CameraPipeline pipeline = resolveCamera(camera);
+        return pipeline != null ? pipeline.resolveHub(profile) : null;
+    }
+
+    // Host name the client used to reach us, without the port
+    private static String requestHostName(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null || host.isEmpty()) {
+            return exchange.getLocalAddress().getHostString();
+        }
+        if (host.startsWith("[")) {
+            int end = host.indexOf(']');
+            return end > 0 ? host.substring(0, end + 1) : host;
+        }
+        int colon = host.indexOf(':');
+        return colon >= 0 ? host.substring(0, colon) : host;
     }
 
     // Handles requests for recording control (/record) - POST
@@ -341,29 +703,35 @@ public class JServer {
         String responseMsg;
         int statusCode;
 
-        if (requestBody != null && requestBody.startsWith("action=")) {
-            String action = requestBody.substring("action=".length()).trim();
+        // action=start/stop, optionally with &camera=name for a camera other than the first
+        Map<String, String> params = QueryParams.parse(requestBody);
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null) {
+            responseMsg = "Unknown camera '" + params.get("camera") + "'.";
+            statusCode = 404;
+        } else if (params.containsKey("action")) {
+            String action = params.get("action").trim();
 
             if ("start".equals(action)) {
-                if (isRecording) {
+                if (camera.isRecording()) {
                     responseMsg = "Recording is already active.";
                     statusCode = 409;
                 } else {
-                    if (startRecording()) {
+                    if (camera.startRecording()) {
                         responseMsg = "Recording started.";
                         statusCode = 200;
                     } else {
                         responseMsg = "Failed to start recording (FFmpeg issue). Check " +
-                                        FFMPEG_LOG_FILE + " for details.";
+                                        camera.getFfmpegLogPath() + " for details.";
                         statusCode = 500;
                     }
                 }
             } else if ("stop".equals(action)) {
-                if (!isRecording) {
+                if (!camera.isRecording()) {
                     responseMsg = "No recording is currently active.";
                     statusCode = 409;
                 } else {
-                    stopRecording();
+                    camera.stopRecording();
                     responseMsg = "Recording stopped.";
                     statusCode = 200;
                 }
@@ -384,184 +752,29 @@ public class JServer {
         }
     }
 
-    // Starts the FFMPEG recording process
-    private synchronized boolean startRecording() {
-        if (isRecording) {
-            return false;
-        }
-
-        // Build the FFmpeg command
-        List<String> command = getFFMPEGCommand();
-
-        String commandString = String.join(" ", command);
-        System.out.println("Attempting to start recording: " + commandString);
-
-        try {
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.directory(new java.io.File("."));
-            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(ffmpegLogFile));
-            pb.redirectError(ProcessBuilder.Redirect.appendTo(ffmpegLogFile));
-
-            recordingProcess = pb.start();
-            isRecording = true;
-            recordingStartTimeMillis = System.currentTimeMillis();
-            System.out.println("Recording process started, output redirected to " + FFMPEG_LOG_FILE);
-
-            executor.submit(() -> monitorRecordingProcess(recordingProcess));
-
-            return true;
-
-        } catch (IOException e) {
-            System.err.println("Failed to start FFmpeg process: " + e.getMessage());
-            e.printStackTrace();
-            recordingProcess = null;
-            isRecording = false;
-            recordingStartTimeMillis = -1;
-            return false;
-        }
-
-    }
-
-    // Utility
-    private static List<String> getFFMPEGCommand() {
-        List<String> command = new ArrayList<>();
-        command.add("ffmpeg");
-        command.add("-nostdin");
-        command.add("-f");
-        command.add("v4l2");
-        command.add("-framerate");
-        command.add("30");
-        command.add("-video_size");
-        command.add("1280x720");
-        command.add("-i");
-        command.add(JServer.CAMERA_DEVICE_PATH);
-
-        command.add("-c:v");
-        command.add("h264_v4l2m2m");
-
-        command.add("-crf");
-        command.add("0");
-        command.add("-pix_fmt");
-        command.add("yuv420p");
-        command.add("-b:v");
-        command.add("1M");
-
-        command.add("-f");
-        command.add("segment");
-        command.add("-reset_timestamps");
-        command.add("1");
-        command.add("-segment_time");
-        command.add("1800");
-        command.add("-segment_format");
-        command.add("mkv");
-        command.add("-segment_atclocktime");
-        command.add("1");
-        command.add("-strftime");
-        command.add("1");
-
-        command.add(JServer.RECORDING_CLIPS_DIR + "/%Y%m%dT%H%M%S.mkv");
-        return command;
-    }
-
-    // Stops the FFmpeg recording process
-    private synchronized void stopRecording() {
-        if (recordingProcess != null && recordingProcess.isAlive()) {
-            System.out.println("Stopping recording process...");
-
-            recordingProcess.destroyForcibly();
-        } else {
-            System.out.println("No active recording process to stop.");
-        }
-    }
-
-    // Watches FFMPEG Thread process
-    private void monitorRecordingProcess(Process process) {
-        try {
-            int exitCode = process.waitFor();
-            System.out.println("FFMPEG Thread finished with exit code " + exitCode);
-
-            if (exitCode != 0) {
-                System.err.println("FFMPEG Thread exited with non-zero status (" + exitCode + "), indicating a potential error during recording.");
-                System.err.println("Check the log file " + FFMPEG_LOG_FILE + " for FFmpeg errors.");
-            }
-
-        } catch (InterruptedException e) {
-            System.out.println("FFMPEG Thread monitor interrupted while waiting.");
-            Thread.currentThread().interrupt();
-        } finally {
-
-            synchronized (this) {
-                if (recordingProcess == process) {
-                    System.out.println("Resetting recording state.");
-                    isRecording = false;
-                    recordingProcess = null;
-                } else {
-                    System.out.println("Monitor finished for an older FFmpeg process instance.");
-                }
-            }
-        }
-    }
-
-    // Reads frames from the source URL and broadcasts to connected clients
-    private void broadcastFrames() {
-        while (!Thread.currentThread().isInterrupted()) {
-            // Connect to C Server
-            try (InputStream source = new URL(sourceUrl).openStream()) {
-                System.out.println("Source stream connected: " + sourceUrl);
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-
-                // Read source stream and broadcast to all clients
-                while ((bytesRead = source.read(buffer)) != -1 && !Thread.currentThread().isInterrupted() && !toResetCameraStream) {
-                    final byte[] frameChunk = Arrays.copyOf(buffer, bytesRead);
-
-                    List<OutputStream> currentClients = new ArrayList<>(streamClients);
-                    for (OutputStream client : currentClients) {
-                        try {
-                            // Streaming the frame chunks happens here
-                            client.write(frameChunk);
-                            client.flush();
-                        } catch (IOException e) {
-                            // Remove client if write fails
-                            System.out.println("Stream client disconnected or write error: " + e.getMessage());
-                            streamClients.remove(client);
-                            try { client.close(); } catch (IOException closeException) { /* ignore */ }
-                        }
-                    }
-                }
-                toResetCameraStream = false;
-                System.out.println("Set Reset Camera to false");
-                System.out.println("Source stream ended.");
-            } catch (IOException e) {
-                System.err.println("Error reading source URL: " + sourceUrl + " - " + e.getMessage());
-            } catch (Exception e) {
-                System.err.println("Unexpected error in broadcaster: " + e.getMessage());
-                e.printStackTrace();
-            }
-
-            try {
-                if (!Thread.currentThread().isInterrupted()) {
-                    System.out.println("Attempting source reconnect in 1s...");
-                    TimeUnit.SECONDS.sleep(1);
-                }
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                System.out.println("Broadcaster interrupted.");
-            }
-        }
-        System.out.println("Broadcaster thread exiting.");
-    }
-
-    // Handles requests for the videos listing page
+    // Handles requests for the videos listing page, newest first and paged with ?page=N.
+    // Rendered from the clip catalog, the clips directory is never listed here.
+    // ?camera=name lists a camera other than the first.
     private void handleVideosRequest(HttpExchange exchange) throws IOException {
         if (!"GET".equals(exchange.getRequestMethod())) {
             exchange.sendResponseHeaders(405, -1);
             return;
         }
+        if (!"/videos".equals(exchange.getRequestURI().getPath())) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
 
-        File clipsDir = new File(RECORDING_CLIPS_DIR);
-        // Use a filter to only get files ending with .mkv (case-insensitive)
-        File[] videoFiles = clipsDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".mkv"));
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        ClipCatalog clipCatalog = camera.getClipCatalog();
+        String cameraQuery = camera == defaultCamera ? "" : "camera=" + URLEncoder.encode(camera.getName(), StandardCharsets.UTF_8) + "&";
+        int pageNumber = (int) Math.max(0, Math.min(QueryParams.getLong(params, "page", 0), Integer.MAX_VALUE / VIDEOS_PAGE_SIZE));
+        ClipCatalog.Page page = clipCatalog.query(0, Long.MAX_VALUE, pageNumber * VIDEOS_PAGE_SIZE, VIDEOS_PAGE_SIZE, true);
 
         StringBuilder htmlBuilder = new StringBuilder();
         htmlBuilder.append("<!DOCTYPE html>")
@@ -576,20 +789,42 @@ public class JServer {
                    .append("<div class=\"container\">")
                    .append("<h1>Recorded Videos</h1>");
 
-        if (videoFiles != null && videoFiles.length > 0) {
-            // Sort files by name for chronological order
-            Arrays.sort(videoFiles);
+        if (cameras.size() > 1) {
+            htmlBuilder.append("<p>");
+            for (CameraPipeline other : cameras.values()) {
+                String label = other == camera ? "<strong>" + other.getName() + "</strong>" : other.getName();
+                htmlBuilder.append("<a href=\"/videos?camera=").append(URLEncoder.encode(other.getName(), StandardCharsets.UTF_8))
+                           .append("\">").append(label).append("</a> ");
+            }
+            htmlBuilder.append("</p>");
+        }
+
+        if (!page.clips().isEmpty()) {
+            htmlBuilder.append("<p>").append(page.total()).append(" clips, ")
+                       .append(DiskStatistics.formatSize(clipCatalog.totalBytes())).append("</p>");
             htmlBuilder.append("<ul>");
-            for (File file : videoFiles) {
-                String filename = file.getName();
+            for (ClipInfo clip : page.clips()) {
+                String filename = clip.name();
                 // Create the download URL using the /clips/ prefix and URL-encoded filename
-                String downloadUrl = "/clips/" + URLEncoder.encode(filename, StandardCharsets.UTF_8.toString());
+                String downloadUrl = clipUrl(camera, filename);
                 htmlBuilder.append("<li>")
                            .append(filename)
+                           .append(" - ").append(formatDuration(clip.durationMillis()))
+                           .append(", ").append(DiskStatistics.formatSize(clip.size()))
                            .append(" (<a href=\"").append(downloadUrl).append("\">Download</a>)")
                            .append("</li>");
             }
             htmlBuilder.append("</ul>");
+            htmlBuilder.append("<p>");
+            if (pageNumber > 0) {
+                htmlBuilder.append("<a href=\"/videos?").append(cameraQuery).append("page=").append(pageNumber - 1).append("\">Newer</a> ");
+            }
+            if ((long) (pageNumber + 1) * VIDEOS_PAGE_SIZE < page.total()) {
+                htmlBuilder.append("<a href=\"/videos?").append(cameraQuery).append("page=").append(pageNumber + 1).append("\">Older</a>");
+            }
+            htmlBuilder.append("</p>");
+        } else if (pageNumber > 0) {
+            htmlBuilder.append("<p>No more recorded videos. <a href=\"/videos\">Newest videos</a></p>");
         } else {
             htmlBuilder.append("<p>No recorded videos found yet.</p>");
         }
@@ -611,9 +846,241 @@ public class JServer {
         System.out.println("Served /videos request");
     }
 
+    // JSON clip index: ?from=&to= (epoch millis) keep clips overlapping that window,
+    // ?offset=&limit= page through them, ?order=asc lists oldest first, ?camera=name picks a
+    // camera other than the first
+    private void handleClipsApiRequest(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        long from = QueryParams.getLong(params, "from", 0);
+        long to = QueryParams.getLong(params, "to", Long.MAX_VALUE);
+        int offset = (int) Math.max(0, Math.min(QueryParams.getLong(params, "offset", 0), Integer.MAX_VALUE));
+        int limit = (int) Math.max(1, Math.min(QueryParams.getLong(params, "limit", VIDEOS_PAGE_SIZE), MAX_CLIPS_API_LIMIT));
+        boolean newestFirst = !"asc".equals(params.get("order"));
+
+        ClipCatalog.Page page = camera.getClipCatalog().query(from, to, offset, limit, newestFirst);
+        List<Map<String, Object>> clips = new ArrayList<>(page.clips().size());
+        for (ClipInfo clip : page.clips()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", clip.name());
+            entry.put("url", clipUrl(camera, clip.name()));
+            entry.put("size", clip.size());
+            entry.put("startMillis", clip.startMillis());
+            entry.put("durationMillis", clip.durationMillis());
+            clips.add(entry);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("camera", camera.getName());
+        response.put("total", page.total());
+        response.put("offset", page.offset());
+        response.put("limit", page.limit());
+        response.put("clips", clips);
+
+        ObjectMapper mapper = new ObjectMapper();
+        byte[] responseBytes = mapper.writeValueAsString(response).getBytes(StandardCharsets.UTF_8);
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, responseBytes.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(responseBytes);
+        }
+    }
+
+    // JSON list of motion events, with the same from/to, offset/limit, order and camera parameters
+    // as /api/clips. An ongoing event has endMillis null. 404 when the camera has no detector.
+    private void handleEventsApiRequest(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null || camera.getMotionDetector() == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        long from = QueryParams.getLong(params, "from", 0);
+        long to = QueryParams.getLong(params, "to", Long.MAX_VALUE);
+        int offset = (int) Math.max(0, Math.min(QueryParams.getLong(params, "offset", 0), Integer.MAX_VALUE));
+        int limit = (int) Math.max(1, Math.min(QueryParams.getLong(params, "limit", VIDEOS_PAGE_SIZE), MAX_CLIPS_API_LIMIT));
+        boolean newestFirst = !"asc".equals(params.get("order"));
+
+        MotionDetector.Page page = camera.getMotionDetector().query(from, to, offset, limit, newestFirst);
+        List<Map<String, Object>> events = new ArrayList<>(page.events().size());
+        for (MotionEvent event : page.events()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("startMillis", event.startMillis());
+            entry.put("endMillis", event.isActive() ? null : event.endMillis());
+            entry.put("peakChangedPercent", Math.round(event.peakChangedPercent() * 10) / 10.0);
+            entry.put("motionSamples", event.motionSamples());
+            events.add(entry);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("camera", camera.getName());
+        response.put("total", page.total());
+        response.put("offset", page.offset());
+        response.put("limit", page.limit());
+        response.put("events", events);
+
+        ObjectMapper mapper = new ObjectMapper();
+        byte[] responseBytes = mapper.writeValueAsString(response).getBytes(StandardCharsets.UTF_8);
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, responseBytes.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(responseBytes);
+        }
+    }
+
+    // Serves the recording between ?from= and ?to= as one file, cut from the segments that cover
+    // it without re-encoding. Times are epoch millis or local time in the segment name format
+    // (20250513T101500). ?camera=name picks a camera other than the first.
+    private void handleExtractRequest(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        CameraPipeline camera = resolveCamera(params.get("camera"));
+        if (camera == null) {
+            sendText(exchange, 404, "Unknown camera '" + params.get("camera") + "'.");
+            return;
+        }
+        long from = parseWallClock(params.get("from"));
+        long to = parseWallClock(params.get("to"));
+        if (from < 0 || to <= from) {
+            sendText(exchange, 400, "Expected from= and to= as epoch millis or yyyyMMddTHHmmss, with from before to.");
+            return;
+        }
+        if (to - from > ClipExtractor.MAX_WINDOW_MILLIS) {
+            sendText(exchange, 400, "The window may be at most " + ClipExtractor.MAX_WINDOW_MILLIS / 3_600_000 +
+                    " hours, download the segments from /videos instead.");
+            return;
+        }
+
+        ClipExtractor.Plan plan = ClipExtractor.plan(camera.getClipCatalog(), from, to);
+        if (plan == null) {
+            sendText(exchange, 404, "Nothing was recorded in that window.");
+            return;
+        }
+        String name = camera.getName() + "-" + ClipCatalog.SEGMENT_NAME_FORMAT.format(
+                Instant.ofEpochMilli(from).atZone(ZoneId.systemDefault())) + (plan.mjpeg() ? ".mjpeg" : ".mkv");
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Disposition", "attachment; filename=\"" + name + "\"");
+
+        if (plan.mjpeg()) {
+            List<ClipExtractor.Range> ranges = ClipExtractor.mjpegRanges(plan, Paths.get(camera.getClipsDir()));
+            long length = 0;
+            for (ClipExtractor.Range range : ranges) {
+                length += range.length();
+            }
+            if (length == 0) {
+                headers.remove("Content-Disposition");
+                sendText(exchange, 404, "Nothing was recorded in that window.");
+                return;
+            }
+            headers.set("Content-Type", "video/x-motion-jpeg");
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                ClipExtractor.writeRanges(ranges, os);
+            } catch (IOException e) {
+                System.err.println("Error streaming extract " + name + ": " + e.getMessage());
+            }
+            System.out.println("Served extract " + name + " from " + ranges.size() + " segments, " + length + " bytes");
+            return;
+        }
+
+        Process process;
+        try {
+            process = ClipExtractor.startRemux(plan, Paths.get(camera.getClipsDir()), new File(camera.getFfmpegLogPath()));
+        } catch (IOException e) {
+            System.err.println("Failed to start FFmpeg for extract " + name + ": " + e.getMessage());
+            headers.remove("Content-Disposition");
+            sendText(exchange, 500, "Failed to start FFmpeg. Check " + camera.getFfmpegLogPath() + " for details.");
+            return;
+        }
+        // The status goes out only once ffmpeg has produced output, so a failed remux is still a 500
+        try (InputStream remuxed = process.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read = remuxed.readNBytes(buffer, 0, buffer.length);
+            if (read == 0) {
+                headers.remove("Content-Disposition");
+                sendText(exchange, 500, "FFmpeg could not extract the window. Check " + camera.getFfmpegLogPath() +
+                        " for details.");
+                return;
+            }
+            headers.set("Content-Type", "video/x-matroska");
+            exchange.sendResponseHeaders(200, 0);
+            long served = read;
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(buffer, 0, read);
+                while ((read = remuxed.read(buffer)) > 0) {
+                    os.write(buffer, 0, read);
+                    served += read;
+                }
+            } catch (IOException e) {
+                System.err.println("Error streaming extract " + name + ": " + e.getMessage());
+            }
+            System.out.println("Served extract " + name + " from " + plan.clips().size() + " segments, " + served + " bytes");
+        } finally {
+            // A viewer that hung up leaves ffmpeg blocked on a full pipe
+            process.destroyForcibly();
+        }
+    }
+
+    // Epoch millis, or local time in the segment name format; -1 when missing or invalid
+    private static long parseWallClock(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return ClipCatalog.parseSegmentStart(value.trim());
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] responseBytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, responseBytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(responseBytes);
+        }
+    }
+
+    // Download path of a clip, the first camera's clips keep their /clips/{file} URLs
+    private String clipUrl(CameraPipeline camera, String clipName) {
+        String file = URLEncoder.encode(clipName, StandardCharsets.UTF_8);
+        return camera == defaultCamera ? "/clips/" + file : "/clips/" + camera.getName() + "/" + file;
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
     // Handles requests for downloading individual video clips
+    // Supports HEAD and single byte ranges (Range, If-Range) so players can seek and interrupted
+    // downloads can resume
     private void handleClipDownload(HttpExchange exchange) throws IOException {
-        if (!"GET".equals(exchange.getRequestMethod())) {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
             exchange.sendResponseHeaders(405, -1);
             return;
         }
@@ -636,13 +1103,21 @@ public class JServer {
             return;
         }
 
+        // /clips/{camera}/{file} is another camera's clip, anything else belongs to the first camera
+        CameraPipeline camera = defaultCamera;
+        int slash = filename.indexOf('/');
+        if (slash > 0 && cameras.containsKey(filename.substring(0, slash))) {
+            camera = cameras.get(filename.substring(0, slash));
+            filename = filename.substring(slash + 1);
+        }
+
         // Construct the file path relative to the clips directory
-        File requestedFile = new File(RECORDING_CLIPS_DIR, filename);
+        File requestedFile = new File(camera.getClipsDir(), filename);
 
         // Get the canonical path of the clips directory
         String clipsCanonicalPath;
         try {
-            clipsCanonicalPath = new File(RECORDING_CLIPS_DIR).getCanonicalPath();
+            clipsCanonicalPath = new File(camera.getClipsDir()).getCanonicalPath();
         } catch (IOException e) {
             System.err.println("Error getting canonical path for clips directory: " + e.getMessage());
             exchange.sendResponseHeaders(500, -1); // Internal Server Error
@@ -676,31 +1151,79 @@ public class JServer {
             return;
         }
 
-        String contentType = "video/x-matroska";
+        String contentType = MjpegSegmentRecorder.isSegment(filename) ? "video/x-motion-jpeg" : "video/x-matroska";
+        long fileLength = requestedFile.length();
+        String eTag = clipETag(requestedFile);
+        String lastModified = httpDate(requestedFile.lastModified());
 
         Headers headers = exchange.getResponseHeaders();
         headers.set("Content-Type", contentType);
-
         headers.set("Content-Disposition", "attachment; filename=\"" + filename + "\"");
-        headers.set("Content-Length", String.valueOf(requestedFile.length()));
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("ETag", eTag);
+        headers.set("Last-Modified", lastModified);
+
+        // A range only applies if the client's copy is still the file we have
+        Headers requestHeaders = exchange.getRequestHeaders();
+        String ifRange = requestHeaders.getFirst("If-Range");
+        ByteRange range = null;
+        if (ifRange == null || ifRange.equals(eTag) || ifRange.equals(lastModified)) {
+            range = ByteRange.parse(requestHeaders.getFirst("Range"), fileLength);
+        }
+        if (range == ByteRange.UNSATISFIABLE) {
+            headers.set("Content-Range", "bytes */" + fileLength);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
 
-        exchange.sendResponseHeaders(200, requestedFile.length());
+        int status = 200;
+        long start = 0;
+        long length = fileLength;
+        if (range != null) {
+            status = 206;
+            start = range.start();
+            length = range.length();
+            headers.set("Content-Range", "bytes " + range.start() + "-" + range.end() + "/" + fileLength);
+        }
 
-        // Stream the file content to the response body
-        try (InputStream is = Files.newInputStream(requestedFile.toPath());
-             OutputStream os = exchange.getResponseBody()) {
+        if ("HEAD".equals(method)) {
+            headers.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        // A zero length would mean chunked encoding to HttpServer
+        exchange.sendResponseHeaders(status, length > 0 ? length : -1);
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+        // Not zero-copy: HttpServer only hands out an OutputStream, so transferTo into the wrapped
+        // channel still copies through bounded JDK buffers rather than using sendfile(2)
+        try (FileChannel file = FileChannel.open(requestedFile.toPath(), StandardOpenOption.READ);
+             OutputStream os = exchange.getResponseBody()) {
+            WritableByteChannel target = Channels.newChannel(os);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long transferred = file.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new EOFException("Clip " + filename + " shrank while being served");
+                }
+                position += transferred;
             }
             os.flush();
-
         } catch (IOException e) {
             System.err.println("Error streaming clip " + filename + ": " + e.getMessage());
         } finally {
-            System.out.println("Served clip for download: " + filename);
+            System.out.println("Served clip for download: " + filename +
+                    (status == 206 ? " (bytes " + start + "-" + (start + length - 1) + ")" : ""));
         }
     }
+
+    // Strong validator for a clip, changes whenever the file is rewritten or grows
+    private static String clipETag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
 }
\ No newline at end of file
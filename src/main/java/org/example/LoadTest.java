@@ -0,0 +1,504 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Repeatable end-to-end load test of a running relay. Starts a FakeMjpegSource (unless
+// --no-source), then runs a swarm of /stream viewers (some reading slowly on purpose),
+// /statistics pollers and /clips/ downloaders for --duration seconds, and reports
+// glass-to-client latency, achieved fps per viewer, and the relay's CPU and heap as read
+// from its /metrics. Latency needs the fake source's stamped frames and viewers on the
+// full-rate stream; transcoded profiles carry no stamp.
+//
+// Start the relay against the fake source, e.g.
+//   java -jar JServer-jar-with-dependencies.jar http://localhost:8080 9090
+// and run
+//   java -cp JServer-jar-with-dependencies.jar org.example.LoadTest --viewers 100 --slow 10 --duration 60
+public class LoadTest {
+    private static final Pattern CLIP_URL = Pattern.compile("\"url\":\"([^\"]+)\"");
+
+    private final String relay;
+    private final String streamQuery;
+    private final double slowKilobytesPerSecond;
+    private final long statisticsIntervalMillis;
+    private volatile boolean running = true;
+
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    private final Recorder statisticsLatencies = new Recorder();
+    private final LongAdder statisticsErrors = new LongAdder();
+    private final LongAdder clipDownloads = new LongAdder();
+    private final LongAdder clipBytes = new LongAdder();
+    private final LongAdder clipErrors = new LongAdder();
+    private final LongAdder clipDownloadMillis = new LongAdder();
+    private final List<double[]> relaySamples = new CopyOnWriteArrayList<>(); // cpu seconds, heap used, wall millis
+
+    public LoadTest(String relay, String streamQuery, double slowKilobytesPerSecond, long statisticsIntervalMillis) {
+        this.relay = relay;
+        this.streamQuery = streamQuery;
+        this.slowKilobytesPerSecond = slowKilobytesPerSecond;
+        this.statisticsIntervalMillis = statisticsIntervalMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        ToolArgs options = new ToolArgs(args);
+        if (options.has("help")) {
+            System.out.println("Options: --relay http://localhost:9090  --viewers 20  --slow 2  --slow-kbps 100\n" +
+                    "         --stream-query fps=10  --stats-pollers 1  --stats-interval-ms 1000\n" +
+                    "         --clip-downloaders 0  --duration 30  --ramp-seconds 5\n" +
+                    "         --no-source | --source-port 8080 --source-fps 30 [--dir jpegs | --width 1280 --height 720]");
+            return;
+        }
+
+        FakeMjpegSource source = null;
+        if (!options.has("no-source")) {
+            source = new FakeMjpegSource(options.getInt("source-port", 8080), options.getDouble("source-fps", 30),
+                    FakeMjpegSource.framesFor(options));
+            source.start();
+        }
+
+        LoadTest test = new LoadTest(options.getString("relay", "http://localhost:9090"),
+                options.getString("stream-query", ""), options.getDouble("slow-kbps", 100),
+                options.getInt("stats-interval-ms", 1000));
+        test.run(options.getInt("viewers", 20), options.getInt("slow", 2), options.getInt("stats-pollers", 1),
+                options.getInt("clip-downloaders", 0), options.getInt("duration", 30), options.getInt("ramp-seconds", 5));
+
+        if (source != null) {
+            source.stop();
+        }
+        System.exit(0);
+    }
+
+    public void run(int viewerCount, int slowCount, int statisticsPollers, int clipDownloaders,
+                    int durationSeconds, int rampSeconds) throws Exception {
+        waitForRelay(TimeUnit.SECONDS.toMillis(60));
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        workers.execute(this::sampleRelay);
+        for (int i = 0; i < statisticsPollers; i++) {
+            workers.execute(this::pollStatistics);
+        }
+        for (int i = 0; i < clipDownloaders; i++) {
+            workers.execute(this::downloadClips);
+        }
+
+        // Spread connections over the ramp so the relay sees arrivals, not one burst
+        long rampStepMillis = viewerCount > 0 ? TimeUnit.SECONDS.toMillis(rampSeconds) / viewerCount : 0;
+        for (int i = 0; i < viewerCount; i++) {
+            Viewer viewer = new Viewer(i, i < slowCount);
+            viewers.add(viewer);
+            workers.execute(viewer::run);
+            Thread.sleep(rampStepMillis);
+        }
+        System.out.println("LoadTest: " + viewerCount + " viewers connected (" + slowCount + " slow), measuring for " +
+                durationSeconds + "s");
+
+        for (Viewer viewer : viewers) {
+            viewer.resetCounters();
+        }
+        long measureStart = System.currentTimeMillis();
+        relaySamples.clear();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        long measuredMillis = System.currentTimeMillis() - measureStart;
+
+        running = false;
+        for (Viewer viewer : viewers) {
+            viewer.disconnect();
+        }
+        workers.shutdownNow();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+        report(measuredMillis);
+    }
+
+    // The relay may be started after the fake source, so give it time to come up
+    private void waitForRelay(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                get("/statistics");
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Relay at " + relay + " is not answering: " + e.getMessage(), e);
+                }
+                System.out.println("LoadTest: Waiting for the relay at " + relay);
+                Thread.sleep(2000);
+            }
+        }
+    }
+
+    private void report(long measuredMillis) {
+        System.out.println();
+        System.out.println("==== LoadTest report (" + measuredMillis / 1000 + "s measured) ====");
+        for (boolean slow : new boolean[]{false, true}) {
+            Recorder latencies = new Recorder();
+            List<Double> fps = new ArrayList<>();
+            int disconnected = 0;
+            int count = 0;
+            for (Viewer viewer : viewers) {
+                if (viewer.slow != slow) {
+                    continue;
+                }
+                count++;
+                latencies.addAll(viewer.latencies);
+                fps.add(viewer.frames.sum() * 1000.0 / measuredMillis);
+                if (viewer.failure != null) {
+                    disconnected++;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            System.out.println((slow ? "Slow viewers (" + slowKilobytesPerSecond + " KB/s)" : "Viewers") + ": " + count +
+                    ", disconnected early: " + disconnected);
+            System.out.println("  glass-to-client latency ms: " + (latencies.size() > 0 ? latencies.percentiles(1e-3) : "n/a (no stamped frames)"));
+            fps.sort(null);
+            System.out.printf(Locale.ROOT, "  achieved fps per viewer: min %.1f  p10 %.1f  median %.1f  max %.1f%n",
+                    fps.get(0), fps.get(fps.size() / 10), fps.get(fps.size() / 2), fps.get(fps.size() - 1));
+        }
+        for (Viewer viewer : viewers) {
+            if (viewer.failure != null) {
+                System.out.println("  first viewer error: " + viewer.failure);
+                break;
+            }
+        }
+
+        if (statisticsLatencies.size() > 0 || statisticsErrors.sum() > 0) {
+            System.out.println("/statistics: " + statisticsLatencies.size() + " requests, " + statisticsErrors.sum() +
+                    " errors, latency ms: " + statisticsLatencies.percentiles(1e-3));
+        }
+        if (clipDownloads.sum() > 0 || clipErrors.sum() > 0) {
+            double seconds = Math.max(1, clipDownloadMillis.sum()) / 1000.0;
+            System.out.printf(Locale.ROOT, "/clips/: %d downloads, %d errors, %.1f MB at %.1f MB/s per download%n",
+                    clipDownloads.sum(), clipErrors.sum(), clipBytes.sum() / 1e6, clipBytes.sum() / 1e6 / seconds);
+        }
+
+        if (relaySamples.size() >= 2) {
+            double[] first = relaySamples.get(0);
+            double[] last = relaySamples.get(relaySamples.size() - 1);
+            double cpu = (last[0] - first[0]) / ((last[2] - first[2]) / 1000.0);
+            double maxHeap = 0;
+            for (double[] sample : relaySamples) {
+                maxHeap = Math.max(maxHeap, sample[1]);
+            }
+            System.out.printf(Locale.ROOT, "Relay: CPU %.1f%% of one core, heap used %.1f MB (max seen %.1f MB)%n",
+                    cpu * 100, last[1] / 1e6, maxHeap / 1e6);
+        } else {
+            System.out.println("Relay: CPU and heap unavailable, /metrics could not be read");
+        }
+    }
+
+    // Reads the relay's own CPU time and heap from /metrics every two seconds
+    private void sampleRelay() {
+        while (running) {
+            try {
+                String metrics = new String(get("/metrics"), StandardCharsets.UTF_8);
+                double cpu = metricValue(metrics, "process_cpu_seconds_total");
+                double heap = metricValue(metrics, "jvm_memory_heap_used_bytes");
+                if (cpu >= 0 && heap >= 0) {
+                    relaySamples.add(new double[]{cpu, heap, System.currentTimeMillis()});
+                }
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                sleepQuietly(2000);
+            }
+        }
+    }
+
+    private static double metricValue(String metrics, String name) {
+        for (String line : metrics.split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return Double.parseDouble(line.substring(name.length() + 1).trim());
+            }
+        }
+        return -1;
+    }
+
+    private void pollStatistics() {
+        while (running) {
+            long started = System.nanoTime();
+            try {
+                get("/statistics");
+                statisticsLatencies.add((System.nanoTime() - started) / 1000);
+            } catch (IOException e) {
+                if (running) {
+                    statisticsErrors.increment();
+                }
+            }
+            sleepQuietly(statisticsIntervalMillis);
+        }
+    }
+
+    // Downloads the newest clips listed by /api/clips, one after another
+    private void downloadClips() {
+        while (running) {
+            try {
+                Matcher urls = CLIP_URL.matcher(new String(get("/api/clips?limit=5"), StandardCharsets.UTF_8));
+                boolean any = false;
+                while (running && urls.find()) {
+                    any = true;
+                    long started = System.currentTimeMillis();
+                    clipBytes.add(discard("/" + urls.group(1).replaceFirst("^/", "")));
+                    clipDownloadMillis.add(System.currentTimeMillis() - started);
+                    clipDownloads.increment();
+                }
+                if (!any) {
+                    sleepQuietly(1000);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    clipErrors.increment();
+                    sleepQuietly(1000);
+                }
+            }
+        }
+    }
+
+    private byte[] get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(relay + path).toURL().openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(10000);
+        try (InputStream in = connection.getInputStream()) {
+            return in.readAllBytes();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private long discard(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(relay + path).toURL().openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(10000);
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while (running && (read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return total;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One /stream client reading whole parts off a raw socket, the way a browser <img> does
+    private final class Viewer {
+        private final int index;
+        private final boolean slow;
+        private final LongAdder frames = new LongAdder();
+        private volatile Recorder latencies = new Recorder();
+        private volatile Socket socket;
+        private volatile String failure;
+
+        Viewer(int index, boolean slow) {
+            this.index = index;
+            this.slow = slow;
+        }
+
+        void resetCounters() {
+            frames.reset();
+            latencies = new Recorder();
+        }
+
+        void disconnect() {
+            Socket current = socket;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+        }
+
+        void run() {
+            String target = relay + "/stream" + (streamQuery.isEmpty() ? "" : "?" + streamQuery);
+            try {
+                for (int redirects = 0; ; redirects++) {
+                    String location = stream(URI.create(target));
+                    if (location == null || redirects == 3) {
+                        break;
+                    }
+                    // The NIO engine answers /stream on the main port with a redirect to its own port
+                    target = location;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    failure = "viewer " + index + ": " + e.getMessage();
+                }
+            }
+        }
+
+        // Streams until stopped; returns the Location of a redirect instead if there is one
+        private String stream(URI uri) throws IOException {
+            int port = uri.getPort() > 0 ? uri.getPort() : 80;
+            String pathAndQuery = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            try (Socket connection = new Socket(uri.getHost(), port)) {
+                socket = connection;
+                if (slow) {
+                    // A small receive window makes the slowness reach the relay's socket quickly
+                    connection.setReceiveBufferSize(16 * 1024);
+                }
+                OutputStream out = connection.getOutputStream();
+                out.write(("GET " + pathAndQuery + " HTTP/1.1\r\nHost: " + uri.getHost() + ":" + port +
+                        "\r\nUser-Agent: JServer-LoadTest\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                InputStream in = new BufferedInputStream(connection.getInputStream(), 64 * 1024);
+                String status = readLine(in);
+                String location = null;
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    if (line.regionMatches(true, 0, "Location:", 0, 9)) {
+                        location = line.substring(9).trim();
+                    }
+                }
+                if (status == null || line == null) {
+                    throw new IOException("connection closed during the response head");
+                }
+                if (status.contains(" 307 ") || status.contains(" 302 ") || status.contains(" 301 ")) {
+                    return location;
+                }
+                if (!status.contains(" 200 ")) {
+                    throw new IOException("unexpected response: " + status);
+                }
+                readParts(in);
+                return null;
+            }
+        }
+
+        private void readParts(InputStream in) throws IOException {
+            byte[] body = new byte[256 * 1024];
+            long startNanos = System.nanoTime();
+            long bytesRead = 0;
+            while (running) {
+                String line;
+                int contentLength = -1;
+                do {
+                    line = readLine(in);
+                } while (line != null && !line.startsWith("--"));
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                if (line == null) {
+                    throw new IOException("stream ended");
+                }
+                if (contentLength < 0) {
+                    throw new IOException("part without Content-Length");
+                }
+                if (body.length < contentLength) {
+                    body = new byte[contentLength];
+                }
+                int offset = 0;
+                while (offset < contentLength) {
+                    int read = in.read(body, offset, contentLength - offset);
+                    if (read < 0) {
+                        throw new IOException("stream ended mid-frame");
+                    }
+                    offset += read;
+                }
+                long stamp = FakeMjpegSource.readStamp(body, contentLength);
+                if (stamp > 0) {
+                    latencies.add(FakeMjpegSource.epochMicros() - stamp);
+                }
+                frames.increment();
+
+                if (slow) {
+                    // Hold the read rate to slowKilobytesPerSecond
+                    bytesRead += contentLength;
+                    long dueNanos = (long) (bytesRead / (slowKilobytesPerSecond * 1024) * 1e9);
+                    long aheadNanos = dueNanos - (System.nanoTime() - startNanos);
+                    if (aheadNanos > 0) {
+                        sleepQuietly(TimeUnit.NANOSECONDS.toMillis(aheadNanos));
+                    }
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    int length = line.length();
+                    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+                }
+                if (line.length() < 8192) {
+                    line.append((char) b);
+                }
+            }
+            return line.length() > 0 ? line.toString() : null;
+        }
+    }
+
+    // Collects samples (micros) for exact percentiles at the end of the run
+    private static final class Recorder {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized void addAll(Recorder other) {
+            long[] copy;
+            int count;
+            synchronized (other) {
+                copy = other.values;
+                count = other.size;
+            }
+            for (int i = 0; i < count; i++) {
+                add(copy[i]);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        // p50/p90/p99/p99.9/max, multiplied by scale
+        synchronized String percentiles(double scale) {
+            if (size == 0) {
+                return "n/a";
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format(Locale.ROOT, "p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f",
+                    sorted[(int) (size * 0.5)] * scale, sorted[(int) (size * 0.9)] * scale,
+                    sorted[(int) (size * 0.99)] * scale, sorted[(int) (size * 0.999)] * scale,
+                    sorted[size - 1] * scale);
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package org.example;
 
-public class Main {
-
-    private static final String SOURCE_URL = "http://localhost:8080";
-    private static final int RELAY_PORT = 9090;
+import java.util.ArrayList;
+import java.util.List;
 
+public class Main {
 
+    // Usage: Main [sourceUrl] [relayPort], overriding source_url and relay_port from jserver.conf.
+    // The source URL can only be overridden for a single camera.
     public static void main(String[] args) throws Exception {
-        JServer srv = new JServer(SOURCE_URL, RELAY_PORT);
+        // Stream profiles scale frames with AWT, which must not look for a display
+        System.setProperty("java.awt.headless", "true");
+        Config config = ConfigParser.parse("jserver.conf");
+        List<CameraConfig> cameras = new ArrayList<>(config.CAMERAS());
+        if (args.length > 0) {
+            if (cameras.size() == 1) {
+                cameras.set(0, cameras.get(0).withSourceUrl(args[0]));
+            } else {
+                System.err.println("Ignoring source URL " + args[0] + ", jserver.conf configures " + cameras.size() + " cameras");
+            }
+        }
+        int relayPort = args.length > 1 ? Integer.parseInt(args[1]) : config.RELAY_PORT();
+        JServer srv = new JServer(cameras, relayPort, config);
         srv.start();
         System.out.println("JServer started. Press Ctrl+C to stop.");
     }
@@ -0,0 +1,107 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Layout of the memory-mapped frame ring the C server writes with -r,
+// plus a Java writer for it (used by FakeMjpegSource --ring). All fields are in native byte order,
+// the ring only ever connects processes on one machine.
+//
+//   header, 64 bytes:  magic "MJR1" | int version | int slotCount | int slotSize | long publishedFrames
+//   slot i at HEADER_SIZE + i * (SLOT_HEADER_SIZE + slotSize):
+//                      int lock | int length | long frameSequence | long timestampMillis | 8 spare | JPEG
+//
+// Frame n goes into slot n % slotCount. The writer makes the slot's lock odd, writes the frame,
+// makes the lock even again and then raises publishedFrames to n + 1. A reader copies the frame
+// and accepts it only if the lock was even and unchanged around the copy (a seqlock), so a
+// frame the writer lapped while it was being read is detected and skipped, never served torn.
+// The writer builds a new ring in a temporary file and renames it into place, so a mapped ring
+// never shrinks under a reader, which would fault.
+public class MappedFrameRing {
+    static final byte[] MAGIC = "MJR1".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 32;
+
+    static final int VERSION_OFFSET = 4;
+    static final int SLOT_COUNT_OFFSET = 8;
+    static final int SLOT_SIZE_OFFSET = 12;
+    static final int PUBLISHED_OFFSET = 16;
+
+    static final int LOCK_OFFSET = 0;
+    static final int LENGTH_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int TIMESTAMP_OFFSET = 16;
+
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer ring;
+    private final int slotCount;
+    private final int slotSize;
+    private long published = 0;
+
+    private MappedFrameRing(MappedByteBuffer ring, int slotCount, int slotSize) {
+        this.ring = ring;
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+    }
+
+    // Builds an empty ring of slotCount frames of up to slotSize bytes and moves it to path
+    public static MappedFrameRing create(Path path, int slotCount, int slotSize) throws IOException {
+        if (slotCount < 2) {
+            throw new IllegalArgumentException("A frame ring needs at least 2 slots");
+        }
+        slotSize = (slotSize + 63) & ~63; // keeps every slot header 8-byte aligned
+        long size = HEADER_SIZE + (long) slotCount * (SLOT_HEADER_SIZE + slotSize);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame ring of " + size + " bytes is too large to map");
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        MappedByteBuffer ring;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        ring.put(0, MAGIC);
+        ring.order(ByteOrder.nativeOrder()).putInt(SLOT_COUNT_OFFSET, slotCount).putInt(SLOT_SIZE_OFFSET, slotSize);
+        INT.setRelease(ring, VERSION_OFFSET, VERSION);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new MappedFrameRing(ring, slotCount, slotSize);
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public void publish(byte[] jpeg, long timestampMillis) {
+        if (jpeg.length > slotSize) {
+            throw new IllegalArgumentException("Frame of " + jpeg.length + " bytes exceeds the ring's slot size of " + slotSize);
+        }
+        int slot = slotOffset(published, slotCount, slotSize);
+        int lock = (int) INT.get(ring, slot + LOCK_OFFSET);
+        INT.setOpaque(ring, slot + LOCK_OFFSET, lock + 1);
+        VarHandle.storeStoreFence();
+        ring.put(slot + SLOT_HEADER_SIZE, jpeg);
+        INT.set(ring, slot + LENGTH_OFFSET, jpeg.length);
+        LONG.set(ring, slot + SEQUENCE_OFFSET, published);
+        LONG.set(ring, slot + TIMESTAMP_OFFSET, timestampMillis);
+        INT.setRelease(ring, slot + LOCK_OFFSET, lock + 2);
+        LONG.setRelease(ring, PUBLISHED_OFFSET, ++published);
+    }
+
+    static int slotOffset(long frame, int slotCount, int slotSize) {
+        return HEADER_SIZE + (int) (frame % slotCount) * (SLOT_HEADER_SIZE + slotSize);
+    }
+}
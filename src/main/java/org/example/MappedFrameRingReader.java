@@ -0,0 +1,159 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Reads frames from a MappedFrameRing written by another process. There is no socket in
+// between: a frame costs one copy from the mapped slot into a pooled buffer, checked by the
+// slot's seqlock. The relay's frames stay in pooled buffers rather than being handed out as
+// slices of the mapping, since the writer reuses a slot after slotCount frames while a slow
+// viewer may still be sending it.
+//
+// Waiting for a frame polls the published counter. A ring that was replaced by a restarted
+// writer ends the stream, so the broadcaster maps the new file; a writer that just stops is
+// left to the stall watchdog, whose close() fails the wait.
+public class MappedFrameRingReader implements FrameSource {
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final long REPLACED_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int SPINS_BEFORE_PARKING = 64;
+
+    private final Path path;
+    private final Object fileKey;
+    private final MappedByteBuffer ring;
+    private final int slotCount;
+    private final int slotSize;
+    private long nextFrame;
+    private volatile boolean closed = false;
+
+    private MappedFrameRingReader(Path path, Object fileKey, MappedByteBuffer ring) throws IOException {
+        this.path = path;
+        this.fileKey = fileKey;
+        this.ring = ring;
+        byte[] magic = new byte[MappedFrameRing.MAGIC.length];
+        ring.get(0, magic);
+        if (!Arrays.equals(magic, MappedFrameRing.MAGIC) ||
+                (int) MappedFrameRing.INT.getAcquire(ring, MappedFrameRing.VERSION_OFFSET) != MappedFrameRing.VERSION) {
+            throw new IOException("Not an MJR" + MappedFrameRing.VERSION + " frame ring: " + path);
+        }
+        ring.order(ByteOrder.nativeOrder());
+        this.slotCount = ring.getInt(MappedFrameRing.SLOT_COUNT_OFFSET);
+        this.slotSize = ring.getInt(MappedFrameRing.SLOT_SIZE_OFFSET);
+        long size = MappedFrameRing.HEADER_SIZE + (long) slotCount * (MappedFrameRing.SLOT_HEADER_SIZE + slotSize);
+        if (slotCount < 2 || slotSize <= 0 || size != ring.capacity()) {
+            throw new IOException("Frame ring " + path + " has an inconsistent layout");
+        }
+        // Start with the next frame: the newest one may be from a writer that has since stopped,
+        // and reading it would look like progress to the watchdog
+        this.nextFrame = published();
+    }
+
+    public static MappedFrameRingReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            long size = channel.size();
+            if (size < MappedFrameRing.HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Frame ring " + path + " has an invalid size of " + size + " bytes");
+            }
+            return new MappedFrameRingReader(path, fileKey, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public Frame readFrame(FrameBufferPool pool, long sequence) throws IOException {
+        int idle = 0;
+        long nextReplacedCheck = System.nanoTime() + REPLACED_CHECK_NANOS;
+        while (true) {
+            if (closed) {
+                throw new IOException("Frame ring closed while waiting for a frame");
+            }
+            long published = published();
+            if (published < nextFrame) {
+                // The counter went back, the ring was reset under us
+                return null;
+            }
+            if (published == nextFrame) {
+                if (idle++ < SPINS_BEFORE_PARKING) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(POLL_NANOS);
+                    if (System.nanoTime() - nextReplacedCheck > 0) {
+                        if (isReplaced()) {
+                            return null;
+                        }
+                        nextReplacedCheck = System.nanoTime() + REPLACED_CHECK_NANOS;
+                    }
+                }
+                continue;
+            }
+            if (published - nextFrame >= slotCount) {
+                // Lapped by the writer, the frames in between are gone
+                nextFrame = published - 1;
+            }
+
+            Frame frame = copyFrame(pool, sequence);
+            if (frame != null) {
+                nextFrame++;
+                return frame;
+            }
+            // Overwritten during the copy, move on to the newest frame
+            nextFrame = Math.max(nextFrame + 1, published() - 1);
+        }
+    }
+
+    // Copies frame nextFrame into a pooled buffer, or returns null if the writer got in the way
+    private Frame copyFrame(FrameBufferPool pool, long sequence) throws IOException {
+        int slot = MappedFrameRing.slotOffset(nextFrame, slotCount, slotSize);
+        int lock = (int) MappedFrameRing.INT.getAcquire(ring, slot + MappedFrameRing.LOCK_OFFSET);
+        if ((lock & 1) != 0 || (long) MappedFrameRing.LONG.get(ring, slot + MappedFrameRing.SEQUENCE_OFFSET) != nextFrame) {
+            return null;
+        }
+        int length = (int) MappedFrameRing.INT.get(ring, slot + MappedFrameRing.LENGTH_OFFSET);
+        long timestampMillis = (long) MappedFrameRing.LONG.get(ring, slot + MappedFrameRing.TIMESTAMP_OFFSET);
+        if (length <= 0 || length > slotSize) {
+            VarHandle.loadLoadFence();
+            if ((int) MappedFrameRing.INT.getVolatile(ring, slot + MappedFrameRing.LOCK_OFFSET) != lock) {
+                return null;
+            }
+            throw new IOException("Invalid frame length " + length + " in frame ring " + path);
+        }
+
+        FrameBuffer buffer = pool.acquire(length);
+        buffer.buffer().put(FrameBuffer.HEADER_ROOM, ring, slot + MappedFrameRing.SLOT_HEADER_SIZE, length);
+        VarHandle.loadLoadFence();
+        if ((int) MappedFrameRing.INT.getVolatile(ring, slot + MappedFrameRing.LOCK_OFFSET) != lock) {
+            buffer.release();
+            RelayMetrics.SOURCE_RING_TORN_READS.increment();
+            return null;
+        }
+        return new Frame(sequence, timestampMillis, buffer, length);
+    }
+
+    private long published() {
+        return (long) MappedFrameRing.LONG.getAcquire(ring, MappedFrameRing.PUBLISHED_OFFSET);
+    }
+
+    private boolean isReplaced() {
+        try {
+            return !Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+        } catch (IOException e) {
+            return false; // no file means the writer is gone, that is up to the watchdog
+        }
+    }
+
+    // Also called from the watchdog, the waiting reader sees the flag on its next poll
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,133 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Splits a multipart/x-mixed-replace MJPEG stream into whole JPEG frames
+// using the Content-Length header of every part (as sent by the C server).
+// Headers are parsed in place and frames are read into pooled buffers, so
+// reading a frame does not allocate anything beyond the Frame descriptor.
+public class MjpegFrameReader implements FrameSource {
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+
+    private final InputStream in;
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private final byte[] scratch = new byte[64 * 1024];
+    private int lineLength;
+
+    public MjpegFrameReader(InputStream source) {
+        this.in = new BufferedInputStream(source, 64 * 1024);
+    }
+
+    // Reads the next part into a buffer from the pool, or returns null at end of stream
+    @Override
+    public Frame readFrame(FrameBufferPool pool, long sequence) throws IOException {
+        // Skip the trailer of the previous part (and any preamble) up to the boundary line
+        do {
+            if (!readLine()) {
+                return null;
+            }
+        } while (lineLength < 2 || line[0] != '-' || line[1] != '-');
+
+        int contentLength = -1;
+        while (true) {
+            if (!readLine()) {
+                return null;
+            }
+            if (lineLength == 0) {
+                break;
+            }
+            if (isHeader(CONTENT_LENGTH)) {
+                contentLength = parseHeaderValue(CONTENT_LENGTH.length + 1);
+            }
+        }
+
+        if (contentLength < 0) {
+            throw new IOException("Part without Content-Length, cannot split source stream into frames");
+        }
+        if (contentLength > MAX_FRAME_SIZE) {
+            throw new IOException("Frame of " + contentLength + " bytes exceeds limit of " + MAX_FRAME_SIZE);
+        }
+
+        FrameBuffer buffer = pool.acquire(contentLength);
+        try {
+            int position = FrameBuffer.HEADER_ROOM;
+            int remaining = contentLength;
+            while (remaining > 0) {
+                int read = in.read(scratch, 0, Math.min(scratch.length, remaining));
+                if (read < 0) {
+                    buffer.release();
+                    return null;
+                }
+                buffer.buffer().put(position, scratch, 0, read);
+                position += read;
+                remaining -= read;
+            }
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return new Frame(sequence, System.currentTimeMillis(), buffer, contentLength);
+    }
+
+    // Reads one line without its CR/LF into the line buffer, false at end of stream
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return true;
+            }
+            if (b != '\r') {
+                if (lineLength >= MAX_LINE_LENGTH) {
+                    throw new IOException("Multipart header line longer than " + MAX_LINE_LENGTH + " bytes");
+                }
+                line[lineLength++] = (byte) b;
+            }
+        }
+        return lineLength > 0;
+    }
+
+    // Case-insensitive check whether the current line is the given (lowercase) header
+    private boolean isHeader(byte[] name) {
+        if (lineLength <= name.length || line[name.length] != ':') {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (Character.toLowerCase(line[i]) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the non-negative integer value of the current header line starting at the given index
+    private int parseHeaderValue(int start) throws IOException {
+        long value = 0;
+        boolean sawDigit = false;
+        for (int i = start; i < lineLength; i++) {
+            byte c = line[i];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                sawDigit = true;
+                if (value > Integer.MAX_VALUE) {
+                    throw new IOException("Content-Length out of range");
+                }
+            } else if (c != ' ' && c != '\t') {
+                throw new IOException("Invalid Content-Length in part header");
+            }
+        }
+        if (!sawDigit) {
+            throw new IOException("Empty Content-Length in part header");
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,312 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Records the frames the relay already receives into time-segmented files, so recording needs
+// neither the second v4l2loopback device nor an ffmpeg encode. The broadcaster only queues a
+// frame; the recorder's own thread appends it to the current segment, which is the JPEGs back
+// to back (players open it as raw MJPEG). Next to every segment a .idx file holds one entry per
+// frame, written after the frame itself so it never points past the data:
+//   8-byte magic "MJPGIDX1", then per frame: long timestampMillis | long offset | int length (big-endian)
+// The first segment starts with the first frame, later ones on the wall clock boundaries of
+// SEGMENT_SECONDS like ffmpeg's -segment_atclocktime, named after their first frame's local time.
+// Given a PreEventBuffer, the recording opens with the frames buffered before it was started,
+// and frames the full queue left out are taken from it while it still holds them.
+public class MjpegSegmentRecorder {
+    public static final String EXTENSION = ".mjpeg";
+    public static final String INDEX_EXTENSION = ".idx";
+    public static final long SEGMENT_SECONDS = 1800;
+    static final byte[] INDEX_MAGIC = "MJPGIDX1".getBytes(StandardCharsets.US_ASCII);
+    static final int INDEX_ENTRY_SIZE = 20;
+    private static final int QUEUE_CAPACITY = 60;
+    private static final long INDEX_FLUSH_MILLIS = 1000;
+
+    private final String cameraName;
+    private final Path clipsDir;
+    private final PreEventBuffer preEvent;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder writtenFrames = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder recoveredFrames = new LongAdder(); // dropped from the queue, written from the pre-event buffer
+    private final LongAdder segments = new LongAdder();
+    private volatile boolean running = true;
+    private volatile long lastOfferedSequence = -1; // set by the broadcaster, queued or not
+    private volatile String currentSegment;
+    private Thread writerThread;
+
+    // Only touched by the writer thread
+    private FileChannel data;
+    private FileChannel index;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_ENTRY_SIZE * 256);
+    private long dataOffset;
+    private long segmentEndMillis;
+    private long lastIndexFlushMillis;
+    private long lastWrittenSequence = -1;
+    private boolean failing = false;
+
+    // Frames are accepted from construction on, so none fall between the pre-event buffer and
+    // the first live frame; start() then begins writing them
+    public MjpegSegmentRecorder(String cameraName, String clipsDir, PreEventBuffer preEvent) {
+        this.cameraName = cameraName;
+        this.clipsDir = Paths.get(clipsDir);
+        this.preEvent = preEvent;
+    }
+
+    public static boolean isSegment(String name) {
+        return name.toLowerCase().endsWith(EXTENSION);
+    }
+
+    // 20250513T000000.mjpeg has its index in 20250513T000000.idx
+    public static String indexName(String segmentName) {
+        return segmentName.substring(0, segmentName.length() - EXTENSION.length()) + INDEX_EXTENSION;
+    }
+
+    public void start() {
+        writerThread = Thread.ofPlatform().name("mjpeg-recorder-" + cameraName).daemon(true).start(this::writeFrames);
+        System.out.println("Camera '" + cameraName + "': MJPEG recorder writing segments to " + clipsDir);
+    }
+
+    // Lets the writer finish the queued frames and close the segment, without waiting for it
+    public void finish() {
+        running = false;
+    }
+
+    // Finishes the queued frames and closes the segment
+    public void stop() {
+        finish();
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Called by the broadcaster for every relayed frame, never waits for the disk. A full
+    // queue means the disk can't keep up, and the frame is left out of the recording unless
+    // the pre-event buffer can still supply it.
+    public void onFrame(Frame frame) {
+        if (!running) {
+            return;
+        }
+        lastOfferedSequence = frame.sequence();
+        frame.retain();
+        if (!queue.offer(frame)) {
+            frame.release();
+            droppedFrames.increment();
+        } else if (!running && queue.remove(frame)) {
+            // The recorder stopped after the check above, the writer may already be gone.
+            // Whoever takes the frame out of the queue releases it, here or in the writer.
+            frame.release();
+        }
+    }
+
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("segment", currentSegment);
+        stats.put("segments", segments.sum());
+        stats.put("writtenFrames", writtenFrames.sum());
+        stats.put("writtenBytes", writtenBytes.sum());
+        stats.put("droppedFrames", droppedFrames.sum());
+        stats.put("recoveredFrames", recoveredFrames.sum());
+        return stats;
+    }
+
+    // The writer thread is never interrupted: that would close the FileChannels under it
+    private void writeFrames() {
+        if (preEvent != null) {
+            try {
+                preEvent.drainTo(lastWrittenSequence, Long.MAX_VALUE, this::write);
+            } catch (IOException e) {
+                System.err.println("Camera '" + cameraName + "': MJPEG recorder failed to write the pre-event frames: " +
+                        e.getMessage());
+            }
+            if (lastWrittenSequence >= 0) {
+                System.out.println("Camera '" + cameraName + "': Recording opens with " + writtenFrames.sum() +
+                        " pre-event frames");
+            }
+        }
+        while (running || !queue.isEmpty()) {
+            Frame frame;
+            try {
+                frame = queue.poll(250, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (frame == null) {
+                continue;
+            }
+            try {
+                // The queue overflowed, e.g. while the pre-event frames were written: the frames
+                // it left out are taken from the pre-event buffer while it still holds them
+                if (frame.sequence() > lastWrittenSequence + 1) {
+                    recoverFrames(frame.sequence() - 1);
+                }
+                // Frames the pre-event buffer already supplied are queued live as well
+                if (frame.sequence() > lastWrittenSequence) {
+                    // Own position over the shared view, the clients' writers read the same frame
+                    write(frame.sequence(), frame.timestampMillis(), frame.payloadBuffer().duplicate());
+                }
+                failing = false;
+            } catch (IOException e) {
+                droppedFrames.increment();
+                if (!failing) {
+                    // Once per failure streak, a full disk would report it for every frame
+                    System.err.println("Camera '" + cameraName + "': MJPEG recorder failed to write a frame: " +
+                            e.getMessage());
+                    failing = true;
+                }
+            } finally {
+                frame.release();
+            }
+        }
+        // The last frames offered may have found the queue full as well
+        try {
+            recoverFrames(lastOfferedSequence);
+        } catch (IOException e) {
+            System.err.println("Camera '" + cameraName + "': MJPEG recorder failed to write a frame: " + e.getMessage());
+        }
+        // Left behind by an interrupt, or offered while the recorder stopped
+        Frame leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.release();
+            droppedFrames.increment();
+        }
+        closeSegment();
+        System.out.println("Camera '" + cameraName + "': MJPEG recorder stopped.");
+    }
+
+    // Writes the frames after the last one written through the given sequence from the pre-event
+    // buffer, as far as it still holds them
+    private void recoverFrames(long throughSequence) throws IOException {
+        if (preEvent == null || lastWrittenSequence < 0 || throughSequence <= lastWrittenSequence) {
+            return;
+        }
+        long before = writtenFrames.sum();
+        preEvent.drainTo(lastWrittenSequence, throughSequence, this::write);
+        recoveredFrames.add(writtenFrames.sum() - before);
+    }
+
+    // Appends the payload between its position and limit
+    private void write(long sequence, long timestampMillis, ByteBuffer payload) throws IOException {
+        if (data == null || timestampMillis >= segmentEndMillis) {
+            closeSegment();
+            openSegment(timestampMillis);
+        }
+
+        int length = payload.remaining();
+        try {
+            while (payload.hasRemaining()) {
+                data.write(payload);
+            }
+        } catch (IOException e) {
+            // Cut off the partial frame, the segment carries on with the next one
+            try {
+                data.truncate(dataOffset);
+            } catch (IOException truncateError) {
+                closeSegment();
+            }
+            throw e;
+        }
+        indexBuffer.putLong(timestampMillis).putLong(dataOffset).putInt(length);
+        dataOffset += length;
+        lastWrittenSequence = sequence;
+        writtenFrames.increment();
+        writtenBytes.add(length);
+
+        long now = System.currentTimeMillis();
+        if (indexBuffer.remaining() < INDEX_ENTRY_SIZE || now - lastIndexFlushMillis >= INDEX_FLUSH_MILLIS) {
+            flushIndex();
+            lastIndexFlushMillis = now;
+        }
+    }
+
+    private void openSegment(long timestampMillis) throws IOException {
+        String base = ClipCatalog.SEGMENT_NAME_FORMAT.format(Instant.ofEpochMilli(timestampMillis).atZone(zone));
+        String name = base + EXTENSION;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                data = FileChannel.open(clipsDir.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Restarted within the same second
+                name = base + "-" + attempt + EXTENSION;
+            }
+        }
+        try {
+            index = FileChannel.open(clipsDir.resolve(indexName(name)), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            index.write(ByteBuffer.wrap(INDEX_MAGIC));
+        } catch (IOException e) {
+            data.close();
+            data = null;
+            throw e;
+        }
+        dataOffset = 0;
+        segmentEndMillis = nextBoundaryMillis(timestampMillis);
+        currentSegment = name;
+        segments.increment();
+        System.out.println("Camera '" + cameraName + "': Recording segment " + name);
+    }
+
+    // Next multiple of SEGMENT_SECONDS since local midnight, as ffmpeg's -segment_atclocktime cuts
+    private long nextBoundaryMillis(long timestampMillis) {
+        ZonedDateTime time = Instant.ofEpochMilli(timestampMillis).atZone(zone);
+        ZonedDateTime midnight = time.toLocalDate().atStartOfDay(zone);
+        long secondsIntoDay = TimeUnit.MILLISECONDS.toSeconds(timestampMillis - midnight.toInstant().toEpochMilli());
+        long nextBoundary = (secondsIntoDay / SEGMENT_SECONDS + 1) * SEGMENT_SECONDS;
+        return midnight.plusSeconds(nextBoundary).toInstant().toEpochMilli();
+    }
+
+    private void flushIndex() throws IOException {
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) {
+            index.write(indexBuffer);
+        }
+        indexBuffer.clear();
+    }
+
+    private void closeSegment() {
+        try {
+            if (index != null && data != null) {
+                flushIndex();
+            }
+        } catch (IOException e) {
+            System.err.println("Camera '" + cameraName + "': Failed to write the index of " + currentSegment + ": " + e.getMessage());
+        }
+        indexBuffer.clear();
+        closeQuietly(data);
+        closeQuietly(index);
+        data = null;
+        index = null;
+        currentSegment = null;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
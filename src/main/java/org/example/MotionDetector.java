@@ -0,0 +1,390 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Watches a camera's relayed frames for motion. Every k-th frame goes to the detector's own
+// thread through a single pending slot, as with the transcoders, so a slow decode skips frames
+// instead of holding up the relay. Frames are decoded as a raw raster with heavy source
+// subsampling, which skips the colour conversion, and only the luma band is compared with a
+// running-average background. When enough of the watched pixels differ on consecutive samples
+// a motion event starts, and it ends after the cooldown passes without motion. Events are kept
+// in a bounded list for the events API.
+public class MotionDetector {
+    // Called on the detector's thread
+    public interface Listener {
+        void motionStarted(MotionEvent event);
+
+        void motionEnded(MotionEvent event);
+    }
+
+    // Frames are subsampled down to about this width before they are compared
+    static final int SAMPLE_WIDTH = 160;
+    // Share of each sample blended into the background, so it follows slow light changes
+    private static final float BACKGROUND_RATE = 0.05f;
+    // A sample where this much of the picture changed is a light switch or camera exposure
+    // jump, not motion; the background restarts from it
+    private static final double RESET_CHANGED_PERCENT = 75;
+    // Samples in a row over the area threshold before an event starts, filters single glitches
+    private static final int SAMPLES_TO_START = 2;
+    private static final int MAX_EVENTS = 1000;
+    private static final long IDLE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String cameraName;
+    private final int frameInterval;
+    private final int pixelThreshold;
+    private final double minChangedPercent;
+    private final long cooldownMillis;
+    private final List<MotionZone> zones;
+    private final Listener listener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private Frame pending;
+    private boolean stopped = false;
+    private long offeredFrames = 0; // broadcaster thread only
+
+    private final ReentrantLock eventsLock = new ReentrantLock();
+    private final ArrayDeque<MotionEvent> events = new ArrayDeque<>();
+    private volatile MotionEvent currentEvent;
+
+    private final LongAdder sampledFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder failedFrames = new LongAdder();
+    private final LongAdder backgroundResets = new LongAdder();
+    private final LongAdder eventCount = new LongAdder();
+    private volatile double lastChangedPercent = 0;
+    private volatile long lastAnalysisMicros = 0;
+
+    // Worker thread state, reused for every frame
+    private final ImageReader reader;
+    private byte[] input = new byte[256 * 1024];
+    private int[] luma = new int[0];
+    private float[] background;
+    private boolean[] watched;
+    private int watchedPixels;
+    private int sampleWidth;
+    private int sampleHeight;
+    private int samplesOverThreshold = 0;
+    private long lastMotionMillis;
+
+    public MotionDetector(String cameraName, int frameInterval, int pixelThreshold, double minChangedPercent,
+                          long cooldownMillis, List<MotionZone> zones, Listener listener) {
+        this.cameraName = cameraName;
+        this.frameInterval = Math.max(1, frameInterval);
+        this.pixelThreshold = pixelThreshold;
+        this.minChangedPercent = minChangedPercent;
+        this.cooldownMillis = cooldownMillis;
+        this.zones = List.copyOf(zones);
+        this.listener = listener;
+        this.reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+    }
+
+    public void start() {
+        Thread.ofPlatform().name("motion-" + cameraName).daemon(true).start(this::run);
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called by the broadcaster for every source frame, never waits for the detector
+    public void onFrame(Frame frame) {
+        if (offeredFrames++ % frameInterval != 0) {
+            return;
+        }
+        frame.retain();
+        Frame replaced;
+        lock.lock();
+        try {
+            replaced = pending;
+            pending = frame;
+            frameAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (replaced != null) {
+            replaced.release();
+            skippedFrames.increment();
+        }
+    }
+
+    // Waits up to a second for the next frame, so an event still ends while the source is down.
+    // Returns null when that time passes without one.
+    private Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = IDLE_CHECK_NANOS;
+            while (pending == null && !stopped && remaining > 0) {
+                remaining = frameAvailable.awaitNanos(remaining);
+            }
+            Frame next = pending;
+            pending = null;
+            if (stopped && next != null) {
+                next.release();
+                return null;
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isStopped() {
+        lock.lock();
+        try {
+            return stopped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!isStopped()) {
+                Frame frame = take();
+                if (frame != null) {
+                    try {
+                        long started = System.nanoTime();
+                        analyze(frame);
+                        lastAnalysisMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+                        sampledFrames.increment();
+                    } catch (IOException | RuntimeException e) {
+                        if (failedFrames.sum() == 0) {
+                            System.err.println("Camera '" + cameraName + "': Motion detector failed to decode a frame: " +
+                                    e.getMessage());
+                        }
+                        failedFrames.increment();
+                    } finally {
+                        frame.release();
+                    }
+                }
+                endEventAfterCooldown(System.currentTimeMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (currentEvent != null) {
+            endEvent(lastMotionMillis);
+        }
+        reader.dispose();
+        System.out.println("Camera '" + cameraName + "': Motion detector exiting.");
+    }
+
+    private void analyze(Frame frame) throws IOException {
+        int length = frame.length();
+        if (input.length < length) {
+            input = new byte[Math.max(length, input.length * 2)];
+        }
+        frame.payloadBuffer().duplicate().get(input, 0, length);
+
+        Raster raster;
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(input, 0, length))) {
+            reader.setInput(in, true, true);
+            ImageReadParam readParam = reader.getDefaultReadParam();
+            int subsampling = Math.max(1, reader.getWidth(0) / SAMPLE_WIDTH);
+            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            // A raster keeps the JPEG's own YCbCr, band 0 is the luma
+            raster = reader.readRaster(0, readParam);
+        } finally {
+            reader.setInput(null);
+        }
+
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if (width != sampleWidth || height != sampleHeight) {
+            resize(width, height);
+        }
+        raster.getSamples(raster.getMinX(), raster.getMinY(), width, height, 0, luma);
+
+        if (background == null) {
+            background = new float[luma.length];
+            seedBackground();
+            return;
+        }
+
+        int changed = 0;
+        for (int i = 0; i < luma.length; i++) {
+            float value = luma[i];
+            if (watched[i] && Math.abs(value - background[i]) > pixelThreshold) {
+                changed++;
+            }
+            background[i] += (value - background[i]) * BACKGROUND_RATE;
+        }
+        double changedPercent = watchedPixels > 0 ? changed * 100.0 / watchedPixels : 0;
+        lastChangedPercent = changedPercent;
+
+        if (changedPercent >= RESET_CHANGED_PERCENT) {
+            seedBackground();
+            backgroundResets.increment();
+            samplesOverThreshold = 0;
+            return;
+        }
+        if (changedPercent < minChangedPercent) {
+            samplesOverThreshold = 0;
+            return;
+        }
+        samplesOverThreshold++;
+        long timestampMillis = frame.timestampMillis();
+        MotionEvent event = currentEvent;
+        if (event != null) {
+            lastMotionMillis = timestampMillis;
+            currentEvent = new MotionEvent(event.startMillis(), -1, Math.max(event.peakChangedPercent(), changedPercent),
+                    event.motionSamples() + 1);
+        } else if (samplesOverThreshold >= SAMPLES_TO_START) {
+            lastMotionMillis = timestampMillis;
+            event = new MotionEvent(timestampMillis, -1, changedPercent, samplesOverThreshold);
+            currentEvent = event;
+            eventCount.increment();
+            RelayMetrics.MOTION_EVENTS.increment();
+            System.out.println("Camera '" + cameraName + "': Motion detected, " +
+                    String.format("%.1f", changedPercent) + "% of the watched area changed");
+            listener.motionStarted(event);
+        }
+    }
+
+    private void endEventAfterCooldown(long nowMillis) {
+        if (currentEvent != null && nowMillis - lastMotionMillis >= cooldownMillis) {
+            endEvent(lastMotionMillis);
+        }
+    }
+
+    private void endEvent(long endMillis) {
+        MotionEvent active = currentEvent;
+        MotionEvent ended = new MotionEvent(active.startMillis(), Math.max(active.startMillis(), endMillis),
+                active.peakChangedPercent(), active.motionSamples());
+        eventsLock.lock();
+        try {
+            if (events.size() == MAX_EVENTS) {
+                events.removeFirst();
+            }
+            events.addLast(ended);
+            currentEvent = null;
+        } finally {
+            eventsLock.unlock();
+        }
+        System.out.println("Camera '" + cameraName + "': Motion ended after " +
+                (ended.endMillis() - ended.startMillis()) / 1000 + "s");
+        listener.motionEnded(ended);
+    }
+
+    // A new sample size, first frame or a source that changed resolution: the model starts over
+    private void resize(int width, int height) {
+        sampleWidth = width;
+        sampleHeight = height;
+        luma = new int[width * height];
+        background = null;
+        watched = new boolean[width * height];
+        watchedPixels = 0;
+        if (zones.isEmpty()) {
+            Arrays.fill(watched, true);
+            watchedPixels = watched.length;
+            return;
+        }
+        for (MotionZone zone : zones) {
+            int left = (int) Math.floor(zone.left() * width / 100);
+            int top = (int) Math.floor(zone.top() * height / 100);
+            int right = Math.min(width, (int) Math.ceil((zone.left() + zone.width()) * width / 100));
+            int bottom = Math.min(height, (int) Math.ceil((zone.top() + zone.height()) * height / 100));
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    if (!watched[y * width + x]) {
+                        watched[y * width + x] = true;
+                        watchedPixels++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void seedBackground() {
+        for (int i = 0; i < luma.length; i++) {
+            background[i] = luma[i];
+        }
+    }
+
+    public boolean isMotionActive() {
+        return currentEvent != null;
+    }
+
+    // Events overlapping [fromMillis, toMillis), an ongoing event included, paged like the clip index
+    public Page query(long fromMillis, long toMillis, int offset, int limit, boolean newestFirst) {
+        List<MotionEvent> matching = new ArrayList<>();
+        eventsLock.lock();
+        try {
+            Iterator<MotionEvent> iterator = newestFirst ? events.descendingIterator() : events.iterator();
+            MotionEvent active = currentEvent;
+            if (active != null && newestFirst) {
+                matching.add(active);
+            }
+            while (iterator.hasNext()) {
+                matching.add(iterator.next());
+            }
+            if (active != null && !newestFirst) {
+                matching.add(active);
+            }
+        } finally {
+            eventsLock.unlock();
+        }
+
+        long now = System.currentTimeMillis();
+        List<MotionEvent> page = new ArrayList<>(Math.min(limit, matching.size()));
+        int matched = 0;
+        for (MotionEvent event : matching) {
+            long end = event.isActive() ? now : event.endMillis();
+            if (end < fromMillis || event.startMillis() >= toMillis) {
+                continue;
+            }
+            if (matched >= offset && page.size() < limit) {
+                page.add(event);
+            }
+            matched++;
+        }
+        return new Page(page, matched, offset, limit);
+    }
+
+    public record Page(List<MotionEvent> events, int total, int offset, int limit) {}
+
+    // Snapshot of the detector counters for the statistics endpoint
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("frameInterval", frameInterval);
+        stats.put("pixelThreshold", pixelThreshold);
+        stats.put("minChangedPercent", minChangedPercent);
+        stats.put("cooldownMillis", cooldownMillis);
+        stats.put("zones", zones.size());
+        stats.put("sampleSize", sampleWidth + "x" + sampleHeight);
+        stats.put("sampledFrames", sampledFrames.sum());
+        stats.put("skippedFrames", skippedFrames.sum());
+        stats.put("failedFrames", failedFrames.sum());
+        stats.put("backgroundResets", backgroundResets.sum());
+        stats.put("lastChangedPercent", Math.round(lastChangedPercent * 10) / 10.0);
+        stats.put("lastAnalysisMicros", lastAnalysisMicros);
+        stats.put("events", eventCount.sum());
+        stats.put("motionActive", isMotionActive());
+        return stats;
+    }
+}
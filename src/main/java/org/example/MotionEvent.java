@@ -0,0 +1,11 @@
+package org.example;
+
+// One stretch of detected motion. endMillis is -1 while the event is still going on; it ends
+// once the detector has seen no motion for the cooldown. peakChangedPercent is the largest
+// share of the watched pixels that differed from the background during the event.
+public record MotionEvent(long startMillis, long endMillis, double peakChangedPercent, int motionSamples) {
+
+    public boolean isActive() {
+        return endMillis < 0;
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A rectangle of the picture the motion detector watches, e.g. 0,40,50,60 (left,top,width,height
+// in percent of the frame), so a zone keeps its place whatever the source resolution.
+public record MotionZone(double left, double top, double width, double height) {
+
+    public static MotionZone parse(String spec) {
+        String[] parts = spec.trim().split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid motion zone '" + spec + "', expected LEFT,TOP,WIDTH,HEIGHT in percent");
+        }
+        double left = Double.parseDouble(parts[0].trim());
+        double top = Double.parseDouble(parts[1].trim());
+        double width = Double.parseDouble(parts[2].trim());
+        double height = Double.parseDouble(parts[3].trim());
+        if (left < 0 || top < 0 || width <= 0 || height <= 0 || left + width > 100 || top + height > 100) {
+            throw new IllegalArgumentException("Invalid motion zone '" + spec + "', it must lie within 0-100 percent of the frame");
+        }
+        return new MotionZone(left, top, width, height);
+    }
+
+    // Zones separated by ';', as in a camera's motion_zones= setting
+    public static List<MotionZone> parseList(String specs) {
+        List<MotionZone> zones = new ArrayList<>();
+        for (String spec : specs.split(";")) {
+            if (!spec.isBlank()) {
+                zones.add(parse(spec));
+            }
+        }
+        return zones;
+    }
+}
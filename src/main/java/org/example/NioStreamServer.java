@@ -0,0 +1,565 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+// Selector-driven /stream engine. One acceptor thread hands connections to a small,
+// fixed set of selector loops. Every frame is written with gathering writes straight
+// from the frame's shared read-only direct buffers (part header + JPEG + trailer), so
+// there is no per-client copy and hundreds of viewers only cost a handful of threads.
+// Clients only track how far into their current frame they are; the buffer views are
+// shared per loop, so writing to a caught-up client allocates nothing.
+public class NioStreamServer {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final int MAX_REQUEST_SIZE = 8192;
+    private static final byte[] STREAM_RESPONSE = ("HTTP/1.1 200 OK\r\n" +
+            "Content-Type: multipart/x-mixed-replace; boundary=" + Frame.BOUNDARY + "\r\n" +
+            "Cache-Control: no-cache, no-store\r\n" +
+            "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final int port;
+    private final int queueCapacity;
+    private final double defaultFps;
+    private final BiFunction<String, String, FrameHub> hubs; // camera (null for the first) and profile (null for full rate) to hub
+    private final SelectorLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    public NioStreamServer(int port, int selectorThreads, int queueCapacity, double defaultFps,
+                           BiFunction<String, String, FrameHub> hubs) {
+        if (selectorThreads < 1) {
+            throw new IllegalArgumentException("Selector thread count must be at least 1, got " + selectorThreads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Client queue capacity must be at least 1, got " + queueCapacity);
+        }
+        this.port = port;
+        this.queueCapacity = queueCapacity;
+        this.defaultFps = defaultFps;
+        this.hubs = hubs;
+        this.loops = new SelectorLoop[selectorThreads];
+    }
+
+    // The bound port once started, so port 0 can be used to pick a free one
+    public int getPort() {
+        if (serverChannel != null) {
+            try {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                // Closed, fall back to the configured port
+            }
+        }
+        return port;
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 128);
+        running = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+            Thread loopThread = new Thread(loops[i], "nio-stream-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+
+        Thread acceptor = new Thread(this::acceptConnections, "nio-stream-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("NioStreamServer: listening on port " + getPort() + " with " + loops.length + " selector threads");
+    }
+
+    public void stop() {
+        running = false;
+        try { serverChannel.close(); } catch (IOException closeException) { /* ignore */ }
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        int nextLoop = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("NioStreamServer: accept failed: " + e.getMessage());
+            }
+        }
+        System.out.println("NioStreamServer: acceptor exiting.");
+    }
+
+    // Owns a selector and every client registered with it; all socket I/O happens on this thread
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final List<NioStreamClient> clients = new ArrayList<>();
+        private final AtomicBoolean framesPending = new AtomicBoolean(false);
+        private volatile boolean stopped = false;
+
+        // Views over the frame last written on this loop. Caught-up clients all write the
+        // same frame, so they share these instead of each creating their own.
+        private Frame viewFrame;
+        private final ByteBuffer[] views = new ByteBuffer[3];
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // Called from the broadcaster; one wakeup per frame no matter how many clients got it
+        void signalFrames() {
+            if (framesPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            selector.wakeup();
+        }
+
+        // Shared views of a frame positioned at the given offset into its wire representation
+        ByteBuffer[] viewsAt(Frame frame, long offset) {
+            if (frame != viewFrame) {
+                views[0] = frame.partHeaderBuffer().duplicate();
+                views[1] = frame.payloadBuffer().duplicate();
+                views[2] = Frame.PART_TRAILER_BUFFER.duplicate();
+                viewFrame = frame;
+            }
+            long start = 0;
+            for (ByteBuffer view : views) {
+                view.limit(view.capacity());
+                view.position((int) Math.max(0, Math.min(view.capacity(), offset - start)));
+                start += view.capacity();
+            }
+            return views;
+        }
+
+        private void removeClosedClients() {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                NioStreamClient client = clients.get(i);
+                if (client.isClosed()) {
+                    client.releaseInFlight();
+                    clients.remove(i);
+                }
+            }
+        }
+
+        // One client's failure, e.g. its key cancelled by a close() on another thread, must not
+        // end the loop: every other client on it would hang and new connections still land here
+        private void closeAfterError(NioStreamClient client, RuntimeException e) {
+            if (!client.isClosed()) {
+                System.err.println("NioStreamServer: closing client " + client.getId() + " after an error: " + e);
+            }
+            client.close();
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = pendingChannels.poll()) != null) {
+                        NioStreamClient client = new NioStreamClient(this, channel);
+                        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                        clients.add(client);
+                    }
+
+                    // Most sockets are writable, so try to push new frames right away
+                    // instead of waiting for another select round
+                    if (framesPending.getAndSet(false)) {
+                        for (int i = 0; i < clients.size(); i++) {
+                            NioStreamClient client = clients.get(i);
+                            try {
+                                client.writePending();
+                            } catch (RuntimeException e) {
+                                closeAfterError(client, e);
+                            }
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioStreamClient client = (NioStreamClient) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                client.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                client.writePending();
+                            }
+                        } catch (RuntimeException e) {
+                            closeAfterError(client, e);
+                        }
+                    }
+
+                    removeClosedClients();
+                } catch (IOException e) {
+                    System.err.println("NioStreamServer: selector loop error: " + e.getMessage());
+                }
+            }
+
+            for (NioStreamClient client : clients) {
+                client.close();
+            }
+            removeClosedClients();
+            viewFrame = null;
+            try { selector.close(); } catch (IOException closeException) { /* ignore */ }
+        }
+    }
+
+    private final class NioStreamClient implements StreamSubscriber {
+        private final long id = NEXT_ID.getAndIncrement();
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private final String remoteAddress;
+        private final long connectedAtMillis = System.currentTimeMillis();
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>(queueCapacity);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder sentFrames = new LongAdder();
+        private final LongAdder droppedFrames = new LongAdder();
+        private final LongAdder skippedFrames = new LongAdder();
+        private final Histogram writeLatency = RelayMetrics.writeLatencyHistogram();
+        private FrameRateLimiter rateLimiter = new FrameRateLimiter(0);
+        private double maxFps = 0;
+        private volatile FrameHub hub;
+        private volatile boolean closed = false;
+
+        // Loop-thread state
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        private ByteBuffer pendingResponse;
+        private boolean closeAfterResponse = false;
+        private boolean streaming = false;
+        private Frame inFlight;
+        private long inFlightOffset;
+        private long inFlightStartedNanos;
+
+        NioStreamClient(SelectorLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            String address;
+            try {
+                address = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                address = "unknown";
+            }
+            this.remoteAddress = address;
+        }
+
+        void onReadable() {
+            try {
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                if (streaming || pendingResponse != null) {
+                    // Nothing more is expected from a viewer, discard anything it sends
+                    readBuffer.clear();
+                    return;
+                }
+                int headerEnd = indexOfHeaderEnd(readBuffer);
+                if (headerEnd < 0) {
+                    if (!readBuffer.hasRemaining()) {
+                        respondAndClose("431 Request Header Fields Too Large");
+                    }
+                    return;
+                }
+                String head = new String(readBuffer.array(), 0, headerEnd, StandardCharsets.US_ASCII);
+                readBuffer = ByteBuffer.allocate(256);
+                try {
+                    handleRequest(head);
+                } catch (IllegalArgumentException e) {
+                    // A malformed %-escape in the camera name or the query
+                    respondAndClose("400 Bad Request");
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void handleRequest(String head) {
+            int lineEnd = head.indexOf("\r\n");
+            String[] requestLine = (lineEnd < 0 ? head : head.substring(0, lineEnd)).split(" ");
+            if (requestLine.length < 3) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            String path = requestLine[1];
+            String rawQuery = null;
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                rawQuery = path.substring(query + 1);
+                path = path.substring(0, query);
+            }
+            // /stream is the first camera, /stream/{camera} a named one
+            String camera = null;
+            if (path.startsWith("/stream/")) {
+                camera = QueryParams.decode(path.substring("/stream/".length()));
+            } else if (!path.equals("/stream")) {
+                respondAndClose("404 Not Found");
+                return;
+            }
+            if (!"GET".equals(requestLine[0])) {
+                respondAndClose("405 Method Not Allowed");
+                return;
+            }
+
+            Map<String, String> params = QueryParams.parse(rawQuery);
+            FrameHub requestedHub = hubs.apply(camera, params.get("profile"));
+            if (requestedHub == null) {
+                respondAndClose("404 Not Found");
+                return;
+            }
+            maxFps = QueryParams.getPositiveDouble(params, "fps", defaultFps);
+            if (Double.isNaN(maxFps)) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            rateLimiter = new FrameRateLimiter(maxFps);
+
+            pendingResponse = ByteBuffer.wrap(STREAM_RESPONSE);
+            streaming = true;
+
+            hub = requestedHub;
+            hub.subscribe(this);
+            System.out.println("NIO stream client " + id + " connected from " + remoteAddress + " to '" +
+                    hub.getName() + "'. Clients on it: " + hub.subscriberCount());
+            writePending();
+        }
+
+        private void respondAndClose(String status) {
+            pendingResponse = ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\n" +
+                    "Content-Length: 0\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            closeAfterResponse = true;
+            writePending();
+        }
+
+        // Writes as much queued data as the socket accepts without blocking
+        void writePending() {
+            if (closed) {
+                return;
+            }
+            try {
+                if (pendingResponse != null) {
+                    channel.write(pendingResponse);
+                    if (pendingResponse.hasRemaining()) {
+                        setWriteInterest(true);
+                        return;
+                    }
+                    pendingResponse = null;
+                    if (closeAfterResponse) {
+                        close();
+                        return;
+                    }
+                }
+                if (!streaming) {
+                    return;
+                }
+
+                while (true) {
+                    if (inFlight == null) {
+                        inFlight = poll();
+                        inFlightOffset = 0;
+                        inFlightStartedNanos = System.nanoTime();
+                        if (inFlight == null) {
+                            setWriteInterest(false);
+                            return;
+                        }
+                    }
+                    inFlightOffset += channel.write(loop.viewsAt(inFlight, inFlightOffset));
+                    if (inFlightOffset < inFlight.wireLength()) {
+                        setWriteInterest(true);
+                        return;
+                    }
+                    // Covers every selector round the frame took, the NIO view of a blocking write
+                    RelayMetrics.recordFrameWrite(RelayMetrics.NIO_WRITE_NANOS, writeLatency,
+                            System.nanoTime() - inFlightStartedNanos, inFlight);
+                    inFlight.release();
+                    inFlight = null;
+                    sentFrames.increment();
+                }
+            } catch (IOException e) {
+                System.out.println("NIO stream client " + id + " disconnected or write error: " + e.getMessage());
+                close();
+            }
+        }
+
+        private void setWriteInterest(boolean write) {
+            int ops = write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.isValid() && key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        private Frame poll() {
+            lock.lock();
+            try {
+                return queue.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void offer(Frame frame) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                if (!rateLimiter.accept(frame)) {
+                    skippedFrames.increment();
+                    RelayMetrics.CLIENT_SKIPPED_FRAMES.increment();
+                    return;
+                }
+                if (queue.size() >= queueCapacity) {
+                    queue.pollFirst().release();
+                    droppedFrames.increment();
+                    RelayMetrics.CLIENT_DROPPED_FRAMES.increment();
+                }
+                frame.retain();
+                queue.addLast(frame);
+            } finally {
+                lock.unlock();
+            }
+            loop.signalFrames();
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        // Loop thread only, the frame may still be read by a write in progress until then
+        void releaseInFlight() {
+            if (inFlight != null) {
+                inFlight.release();
+                inFlight = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            FrameHub subscribedHub = hub;
+            if (subscribedHub != null && subscribedHub.unsubscribe(this)) {
+                System.out.println("NIO stream client " + id + " removed after " + getSentFrames() +
+                        " frames sent, " + getDroppedFrames() + " dropped. Clients on '" + subscribedHub.getName() +
+                        "': " + subscribedHub.subscriberCount());
+            }
+            lock.lock();
+            try {
+                Frame queued;
+                while ((queued = queue.pollFirst()) != null) {
+                    queued.release();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try { channel.close(); } catch (IOException closeException) { /* ignore */ }
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public long getSentFrames() {
+            return sentFrames.sum();
+        }
+
+        @Override
+        public long getDroppedFrames() {
+            return droppedFrames.sum();
+        }
+
+        @Override
+        public Histogram getWriteLatency() {
+            return writeLatency;
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Map<String, Object> toStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("id", id);
+            stats.put("engine", "nio");
+            stats.put("remoteAddress", remoteAddress);
+            stats.put("connectedAtMillis", connectedAtMillis);
+            stats.put("sentFrames", getSentFrames());
+            stats.put("droppedFrames", getDroppedFrames());
+            stats.put("skippedFrames", skippedFrames.sum());
+            stats.put("maxFps", maxFps);
+            stats.put("queuedFrames", getQueuedFrames());
+            return stats;
+        }
+    }
+
+    // Position just past the blank line ending the request head, or -1 if not received yet
+    private static int indexOfHeaderEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 3; i < buffer.position(); i++) {
+            if (bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
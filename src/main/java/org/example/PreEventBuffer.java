@@ -0,0 +1,164 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The last few seconds of a camera's frames, so a recording can begin with what happened just
+// before /record. JPEGs are copied into one direct arena allocated up front and used as a ring,
+// with each frame's sequence, timestamp, offset and length in parallel arrays, so adding a frame
+// is a single copy and never allocates. A frame stays contiguous in the arena: when it doesn't
+// fit before the end, the arena wraps and the old frames in its way are dropped, as are frames
+// that have aged out of the window. The lock is only ever held to copy one frame in or out, so a
+// recording draining the buffer to a slow disk never keeps the broadcaster waiting for long.
+public class PreEventBuffer {
+    // Recorders replay the buffered frames through this, oldest first
+    public interface FrameVisitor {
+        void visit(long sequence, long timestampMillis, ByteBuffer payload) throws IOException;
+    }
+
+    private final long windowMillis;
+    private final ByteBuffer arena;
+    private final long[] sequences;
+    private final long[] timestamps;
+    private final int[] offsets;
+    private final int[] lengths;
+    private int head = 0;
+    private int count = 0;
+    private int writePosition = 0;
+    private long bufferedBytes = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder skippedFrames = new LongAdder();
+
+    // maxFrames bounds the metadata arrays, the window rarely needs more than fps * seconds
+    public PreEventBuffer(long windowMillis, int maxBytes, int maxFrames) {
+        this.windowMillis = windowMillis;
+        this.arena = ByteBuffer.allocateDirect(maxBytes);
+        this.sequences = new long[maxFrames];
+        this.timestamps = new long[maxFrames];
+        this.offsets = new int[maxFrames];
+        this.lengths = new int[maxFrames];
+    }
+
+    // Called by the broadcaster. A frame larger than the whole arena is skipped.
+    public void add(Frame frame) {
+        int length = frame.length();
+        if (length > arena.capacity()) {
+            skippedFrames.increment();
+            return;
+        }
+        lock.lock();
+        try {
+            long timestampMillis = frame.timestampMillis();
+            while (count > 0 && (timestamps[head] < timestampMillis - windowMillis || count == sequences.length)) {
+                dropOldest();
+            }
+
+            int position = writePosition;
+            if (position + length > arena.capacity()) {
+                // What still lies past the newest frame is the oldest data, it goes before wrapping
+                while (count > 0 && offsets[head] >= position) {
+                    dropOldest();
+                }
+                position = 0;
+            }
+            while (count > 0 && offsets[head] >= position && offsets[head] < position + length) {
+                dropOldest();
+            }
+
+            arena.put(position, frame.payloadBuffer(), 0, length);
+            int tail = (head + count) % sequences.length;
+            sequences[tail] = frame.sequence();
+            timestamps[tail] = timestampMillis;
+            offsets[tail] = position;
+            lengths[tail] = length;
+            count++;
+            bufferedBytes += length;
+            writePosition = position + length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hands the buffered frames after afterSequence to the visitor, oldest first, through
+    // throughSequence or the newest one buffered when it was called, whichever comes first, and
+    // returns the last sequence visited (afterSequence if none). Each frame is copied out under the lock and visited outside it, so frames keep being
+    // added while the visitor writes; one the broadcaster overwrites first is left out. The payload
+    // is only valid during the call. The frames stay buffered for the next recording.
+    public long drainTo(long afterSequence, long throughSequence, FrameVisitor visitor) throws IOException {
+        long newest;
+        lock.lock();
+        try {
+            newest = count > 0 ? Math.min(throughSequence, sequences[(head + count - 1) % sequences.length]) : afterSequence;
+        } finally {
+            lock.unlock();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(0);
+        long last = afterSequence;
+        while (last < newest) {
+            long sequence;
+            long timestampMillis;
+            lock.lock();
+            try {
+                int entry = firstAfter(last);
+                if (entry < 0 || sequences[entry] > newest) {
+                    break;
+                }
+                int length = lengths[entry];
+                if (copy.capacity() < length) {
+                    copy = ByteBuffer.allocate(Math.max(length, copy.capacity() * 2));
+                }
+                copy.clear().limit(length);
+                copy.put(0, arena, offsets[entry], length);
+                sequence = sequences[entry];
+                timestampMillis = timestamps[entry];
+            } finally {
+                lock.unlock();
+            }
+            visitor.visit(sequence, timestampMillis, copy);
+            last = sequence;
+        }
+        return last;
+    }
+
+    // Oldest entry with a sequence after the given one, or -1. Sequences grow from head to tail.
+    private int firstAfter(long sequence) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequences[(head + middle) % sequences.length] <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < count ? (head + low) % sequences.length : -1;
+    }
+
+    private void dropOldest() {
+        bufferedBytes -= lengths[head];
+        head = (head + 1) % sequences.length;
+        count--;
+    }
+
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("frames", count);
+            stats.put("bytes", bufferedBytes);
+            stats.put("spanMillis", count > 0 ? timestamps[(head + count - 1) % sequences.length] - timestamps[head] : 0);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("windowMillis", windowMillis);
+        stats.put("capacityBytes", arena.capacity());
+        stats.put("skippedFrames", skippedFrames.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,235 @@
+package org.example;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Produces one reduced stream profile from the source frames. Each source frame is decoded,
+// scaled and re-encoded at most once, however many viewers use the profile, and only while
+// the profile has subscribers. The work runs on the transcoder's own thread behind a single
+// pending slot, so a slow transcode skips source frames instead of holding up the relay.
+public class ProfileTranscoder {
+    private final StreamProfile profile;
+    private final FrameHub hub;
+    private final FrameBufferPool pool;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private Frame pending;
+    private boolean stopped = false;
+    private boolean active = false; // broadcaster thread only
+
+    private final LongAdder transcodedFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder failedFrames = new LongAdder();
+    private volatile long lastTranscodeMillis = 0;
+    private volatile int lastOutputBytes = 0;
+
+    // Worker thread state, reused for every frame
+    private final ImageReader reader;
+    private final ImageWriter writer;
+    private final ImageWriteParam writeParam;
+    private final BufferedImage scaled;
+    private final ExposedByteArrayOutputStream encoded = new ExposedByteArrayOutputStream();
+    private byte[] input = new byte[256 * 1024];
+
+    public ProfileTranscoder(StreamProfile profile, FrameBufferPool pool) {
+        this.profile = profile;
+        this.pool = pool;
+        this.hub = new FrameHub(profile.name(), new FrameRingBuffer(1));
+
+        this.reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        this.writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        this.writeParam = writer.getDefaultWriteParam();
+        writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParam.setCompressionQuality(profile.quality() / 100f);
+        this.scaled = new BufferedImage(profile.width(), profile.height(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    public StreamProfile getProfile() {
+        return profile;
+    }
+
+    public FrameHub getHub() {
+        return hub;
+    }
+
+    public void start() {
+        Thread.ofPlatform().name("transcoder-" + profile.name()).daemon(true).start(this::run);
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called by the broadcaster for every source frame, never waits for a transcode
+    public void onSourceFrame(Frame frame) {
+        if (hub.subscriberCount() == 0) {
+            if (active) {
+                // Nobody is watching: stop transcoding and drop the now stale profile frame
+                active = false;
+                hub.getFrames().clear();
+            }
+            return;
+        }
+        active = true;
+
+        frame.retain();
+        Frame replaced;
+        lock.lock();
+        try {
+            replaced = pending;
+            pending = frame;
+            frameAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (replaced != null) {
+            replaced.release();
+            skippedFrames.increment();
+        }
+    }
+
+    private Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pending == null && !stopped) {
+                frameAvailable.await();
+            }
+            Frame next = pending;
+            pending = null;
+            if (stopped && next != null) {
+                next.release();
+                return null;
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        try {
+            Frame source;
+            while ((source = take()) != null) {
+                try {
+                    if (hub.subscriberCount() == 0) {
+                        continue;
+                    }
+                    long started = System.currentTimeMillis();
+                    Frame transcoded = transcode(source);
+                    lastTranscodeMillis = System.currentTimeMillis() - started;
+                    hub.publish(transcoded);
+                    transcoded.release();
+                    transcodedFrames.increment();
+                } catch (IOException | RuntimeException e) {
+                    if (failedFrames.sum() == 0) {
+                        System.err.println("ProfileTranscoder: failed to transcode frame for profile '" +
+                                profile.name() + "': " + e.getMessage());
+                    }
+                    failedFrames.increment();
+                } finally {
+                    source.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reader.dispose();
+        writer.dispose();
+        System.out.println("ProfileTranscoder: '" + profile.name() + "' exiting.");
+    }
+
+    private Frame transcode(Frame source) throws IOException {
+        int length = source.length();
+        if (input.length < length) {
+            input = new byte[Math.max(length, input.length * 2)];
+        }
+        source.payloadBuffer().duplicate().get(input, 0, length);
+
+        BufferedImage decoded;
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(input, 0, length))) {
+            reader.setInput(in, true, true);
+            // Let the decoder skip pixels when the target is much smaller than the source
+            ImageReadParam readParam = reader.getDefaultReadParam();
+            int subsampling = Math.max(1, Math.min(reader.getWidth(0) / profile.width(),
+                                                   reader.getHeight(0) / profile.height()));
+            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            decoded = reader.read(0, readParam);
+        } finally {
+            reader.setInput(null);
+        }
+
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(decoded, 0, 0, profile.width(), profile.height(), null);
+        } finally {
+            graphics.dispose();
+        }
+
+        encoded.reset();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(encoded)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(scaled, null, null), writeParam);
+        } finally {
+            writer.setOutput(null);
+        }
+
+        int size = encoded.size();
+        lastOutputBytes = size;
+        FrameBuffer buffer = pool.acquire(size);
+        buffer.buffer().put(FrameBuffer.HEADER_ROOM, encoded.array(), 0, size);
+        return new Frame(source.sequence(), source.timestampMillis(), buffer, size);
+    }
+
+    // Snapshot of the transcoder counters for the statistics endpoint
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", profile.name());
+        stats.put("width", profile.width());
+        stats.put("height", profile.height());
+        stats.put("quality", profile.quality());
+        stats.put("subscribers", hub.subscriberCount());
+        stats.put("transcodedFrames", transcodedFrames.sum());
+        stats.put("skippedFrames", skippedFrames.sum());
+        stats.put("failedFrames", failedFrames.sum());
+        stats.put("lastTranscodeMillis", lastTranscodeMillis);
+        stats.put("lastOutputBytes", lastOutputBytes);
+        return stats;
+    }
+
+    // Lets the encoded bytes be copied into a frame buffer without another array copy
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
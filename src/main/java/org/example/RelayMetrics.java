@@ -0,0 +1,185 @@
+package org.example;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters for /metrics. Everything on the frame path is a LongAdder or a
+// Histogram, so instrumenting the broadcaster and the client senders adds no locking.
+// Gauges that describe current state (clients, queues, recording) are read at scrape time.
+public final class RelayMetrics {
+    public static final LongAdder SOURCE_FRAMES = new LongAdder();
+    public static final LongAdder SOURCE_BYTES = new LongAdder();
+    public static final LongAdder SOURCE_RECONNECTS = new LongAdder();
+    public static final LongAdder SOURCE_STALLS = new LongAdder();
+    public static final LongAdder SOURCE_RING_TORN_READS = new LongAdder();
+    // Time between consecutive whole frames from a source, in ms
+    public static final Histogram SOURCE_FRAME_GAP_MILLIS = Histogram.exponential(8, 2, 12);
+    public static final Histogram SOURCE_FRAME_BYTES = Histogram.exponential(4 * 1024, 2, 10);
+
+    // Across every client, including ones that have disconnected
+    public static final LongAdder CLIENT_SENT_FRAMES = new LongAdder();
+    public static final LongAdder CLIENT_DROPPED_FRAMES = new LongAdder();
+    public static final LongAdder CLIENT_SKIPPED_FRAMES = new LongAdder();
+    public static final LongAdder CLIENT_CONNECTIONS = new LongAdder();
+    // Time to write one whole frame to a client, in nanoseconds, per engine
+    public static final Histogram THREADED_WRITE_NANOS = writeLatencyHistogram();
+    public static final Histogram NIO_WRITE_NANOS = writeLatencyHistogram();
+    // From the frame being read off the source to its last byte being written to a client, in ms
+    public static final Histogram DELIVERY_MILLIS = Histogram.exponential(1, 2, 14);
+
+    public static final LongAdder FFMPEG_STARTS = new LongAdder();
+    public static final LongAdder FFMPEG_FAILURES = new LongAdder();
+    public static final LongAdder MOTION_EVENTS = new LongAdder();
+
+    private static final Map<String, Histogram> HTTP_REQUEST_NANOS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> HTTP_RESPONSES = new ConcurrentHashMap<>();
+
+    private RelayMetrics() {
+    }
+
+    public static Histogram writeLatencyHistogram() {
+        // 10 us up to about 5 s
+        return Histogram.exponential(10_000, 2, 20);
+    }
+
+    // Called by the broadcasters
+    public static void recordSourceFrame(Frame frame) {
+        int length = frame.length();
+        SOURCE_FRAMES.increment();
+        SOURCE_BYTES.add(length);
+        SOURCE_FRAME_BYTES.observe(length);
+    }
+
+    // Records a finished frame write for one client of the given engine
+    public static void recordFrameWrite(Histogram engine, Histogram client, long writeNanos, Frame frame) {
+        engine.observe(writeNanos);
+        client.observe(writeNanos);
+        DELIVERY_MILLIS.observe(System.currentTimeMillis() - frame.timestampMillis());
+        CLIENT_SENT_FRAMES.increment();
+    }
+
+    // Times every request through a context and counts responses by status code
+    public static Filter httpFilter(String context) {
+        Histogram latency = HTTP_REQUEST_NANOS.computeIfAbsent(context, c -> writeLatencyHistogram());
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                long started = System.nanoTime();
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    latency.observe(System.nanoTime() - started);
+                    String key = "context=\"" + escape(context) + "\",code=\"" + exchange.getResponseCode() + "\"";
+                    HTTP_RESPONSES.computeIfAbsent(key, k -> new LongAdder()).increment();
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Request metrics for " + context;
+            }
+        };
+    }
+
+    public static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(Histogram.formatValue(value)).append('\n');
+    }
+
+    public static void single(StringBuilder out, String name, String type, String help, double value) {
+        header(out, name, type, help);
+        sample(out, name, "", value);
+    }
+
+    // Label value with the characters the text format reserves escaped
+    public static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // Appends the process-wide series in Prometheus text format
+    public static void writeTo(StringBuilder out) {
+        single(out, "relay_source_frames_total", "counter", "Frames read from the camera source.", SOURCE_FRAMES.sum());
+        single(out, "relay_source_bytes_total", "counter", "JPEG bytes read from the camera source.", SOURCE_BYTES.sum());
+        single(out, "relay_source_reconnects_total", "counter", "Times the broadcaster reconnected to the source.",
+                SOURCE_RECONNECTS.sum());
+        single(out, "relay_source_stalls_total", "counter", "Times the watchdog disconnected a source that stopped sending frames.",
+                SOURCE_STALLS.sum());
+        single(out, "relay_source_ring_torn_reads_total", "counter", "Frames the shared-memory ring writer overwrote while the relay copied them.",
+                SOURCE_RING_TORN_READS.sum());
+        header(out, "relay_source_frame_gap_seconds", "histogram", "Time between consecutive source frames.");
+        SOURCE_FRAME_GAP_MILLIS.writeTo(out, "relay_source_frame_gap_seconds", "", 1e-3);
+        header(out, "relay_source_frame_bytes", "histogram", "Size of source JPEG frames.");
+        SOURCE_FRAME_BYTES.writeTo(out, "relay_source_frame_bytes", "", 1);
+
+        single(out, "relay_client_connections_total", "counter", "Stream clients that have connected.",
+                CLIENT_CONNECTIONS.sum());
+        single(out, "relay_client_sent_frames_total", "counter", "Frames written to stream clients.",
+                CLIENT_SENT_FRAMES.sum());
+        single(out, "relay_client_dropped_frames_total", "counter",
+                "Frames dropped from full client queues.", CLIENT_DROPPED_FRAMES.sum());
+        single(out, "relay_client_skipped_frames_total", "counter",
+                "Frames skipped by per-client frame rate limits.", CLIENT_SKIPPED_FRAMES.sum());
+        header(out, "relay_client_frame_write_seconds", "histogram", "Time to write one frame to a stream client.");
+        THREADED_WRITE_NANOS.writeTo(out, "relay_client_frame_write_seconds", "engine=\"threaded\"", 1e-9);
+        NIO_WRITE_NANOS.writeTo(out, "relay_client_frame_write_seconds", "engine=\"nio\"", 1e-9);
+        header(out, "relay_frame_delivery_seconds", "histogram",
+                "Time from reading a frame off the source to finishing its write to a client.");
+        DELIVERY_MILLIS.writeTo(out, "relay_frame_delivery_seconds", "", 1e-3);
+
+        single(out, "relay_ffmpeg_starts_total", "counter", "Recording processes started.", FFMPEG_STARTS.sum());
+        single(out, "relay_ffmpeg_failures_total", "counter", "Recording processes that exited with an error without being stopped.",
+                FFMPEG_FAILURES.sum());
+        single(out, "relay_motion_events_total", "counter", "Motion events detected across all cameras.", MOTION_EVENTS.sum());
+
+        header(out, "relay_http_request_seconds", "histogram", "HTTP request handling time per context.");
+        for (Map.Entry<String, Histogram> entry : HTTP_REQUEST_NANOS.entrySet()) {
+            entry.getValue().writeTo(out, "relay_http_request_seconds", "context=\"" + escape(entry.getKey()) + "\"", 1e-9);
+        }
+        header(out, "relay_http_responses_total", "counter", "HTTP responses per context and status code.");
+        for (Map.Entry<String, LongAdder> entry : HTTP_RESPONSES.entrySet()) {
+            sample(out, "relay_http_responses_total", entry.getKey(), entry.getValue().sum());
+        }
+
+        writeJvmTo(out);
+    }
+
+    // CPU, heap, direct buffer and GC figures of this process, so load tests can watch the relay's cost
+    private static void writeJvmTo(StringBuilder out) {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            single(out, "process_cpu_seconds_total", "counter", "CPU time used by the relay process.",
+                    os.getProcessCpuTime() / 1e9);
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        single(out, "jvm_memory_heap_used_bytes", "gauge", "Heap in use.", heap.getUsed());
+        single(out, "jvm_memory_heap_committed_bytes", "gauge", "Heap committed by the JVM.", heap.getCommitted());
+        single(out, "jvm_memory_heap_max_bytes", "gauge", "Maximum heap size.", heap.getMax());
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                single(out, "jvm_buffer_direct_used_bytes", "gauge", "Direct buffer memory in use, including the frame pool.",
+                        pool.getMemoryUsed());
+            }
+        }
+        single(out, "jvm_threads_live", "gauge", "Live platform threads.", ManagementFactory.getThreadMXBean().getThreadCount());
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection per collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collection_seconds_total", "gc=\"" + escape(gc.getName()) + "\"", gc.getCollectionTime() / 1e3);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+// Classpath resources read once at startup and served from memory. Each asset keeps a
+// gzip variant when that is smaller, and both carry a strong ETag derived from their
+// bytes, so a reload that matches If-None-Match costs a 304 and no body.
+public class StaticAssets {
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    private record Asset(String contentType, String cacheControl, byte[] identity, String identityETag,
+                         byte[] gzip, String gzipETag) {}
+
+    // Loads and compresses a resource; a missing resource fails startup instead of the first request
+    public void add(String resourcePath, String contentType, String cacheControl) throws IOException {
+        byte[] identity = readResource(resourcePath);
+        byte[] gzip = gzip(identity);
+        String eTag = contentTag(identity);
+        if (gzip.length >= identity.length) {
+            gzip = null;
+        }
+        assets.put(resourcePath, new Asset(contentType, cacheControl, identity, "\"" + eTag + "\"",
+                gzip, "\"" + eTag + "-gz\""));
+    }
+
+    // Serves a loaded asset for GET and HEAD
+    public void serve(HttpExchange exchange, String resourcePath) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        Asset asset = assets.get(resourcePath);
+        if (asset == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        boolean useGzip = asset.gzip() != null && acceptsGzip(requestHeaders.getFirst("Accept-Encoding"));
+        byte[] body = useGzip ? asset.gzip() : asset.identity();
+        String eTag = useGzip ? asset.gzipETag() : asset.identityETag();
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", asset.contentType());
+        headers.set("Cache-Control", asset.cacheControl());
+        headers.set("ETag", eTag);
+        if (asset.gzip() != null) {
+            headers.set("Vary", "Accept-Encoding");
+        }
+
+        if (matches(requestHeaders.getFirst("If-None-Match"), asset)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if (useGzip) {
+            headers.set("Content-Encoding", "gzip");
+        }
+        if ("HEAD".equals(method)) {
+            headers.set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    // Either variant's tag validates, since both come from the same bytes
+    private static boolean matches(String ifNoneMatch, Asset asset) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(asset.identityETag()) || tag.equals(asset.gzipETag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readResource(String resourcePath) throws IOException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = ClassLoader.getSystemClassLoader();
+        }
+
+        // Ensure path is relative to classpath root, exclude leading /
+        String cleanResourcePath = resourcePath.startsWith("/") ? resourcePath.substring(1) : resourcePath;
+
+        try (InputStream is = classLoader.getResourceAsStream(cleanResourcePath)) {
+            if (is == null) {
+                throw new IOException("Resource not found: " + cleanResourcePath);
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String contentTag(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A /stream viewer with its own bounded frame queue. The broadcaster only ever
+// enqueues; the client's own sender thread does the blocking socket writes, so a
+// slow viewer drops its oldest frames instead of stalling the source or other viewers.
+public class StreamClient implements StreamSubscriber {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final String remoteAddress;
+    private final OutputStream out;
+    private final int queueCapacity;
+    private final ArrayDeque<Frame> queue;
+    private final byte[] scratch = new byte[16 * 1024];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final Histogram writeLatency = RelayMetrics.writeLatencyHistogram();
+    private final FrameRateLimiter rateLimiter;
+    private final double maxFps;
+    private final long connectedAtMillis = System.currentTimeMillis();
+    private boolean closed = false;
+
+    // maxFps <= 0 sends every source frame
+    public StreamClient(String remoteAddress, OutputStream out, int queueCapacity, double maxFps) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Client queue capacity must be at least 1, got " + queueCapacity);
+        }
+        this.remoteAddress = remoteAddress;
+        this.out = out;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayDeque<>(queueCapacity);
+        this.maxFps = maxFps;
+        this.rateLimiter = new FrameRateLimiter(maxFps);
+    }
+
+    @Override
+    public void offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (!rateLimiter.accept(frame)) {
+                skippedFrames.increment();
+                RelayMetrics.CLIENT_SKIPPED_FRAMES.increment();
+                return;
+            }
+            if (queue.size() >= queueCapacity) {
+                queue.pollFirst().release();
+                droppedFrames.increment();
+                RelayMetrics.CLIENT_DROPPED_FRAMES.increment();
+            }
+            frame.retain();
+            queue.addLast(frame);
+            frameAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sender loop, runs on the client's own thread until it disconnects or is closed
+    public void run() {
+        try {
+            Frame frame;
+            while ((frame = take()) != null) {
+                try {
+                    long started = System.nanoTime();
+                    frame.writeTo(out, scratch);
+                    out.flush();
+                    RelayMetrics.recordFrameWrite(RelayMetrics.THREADED_WRITE_NANOS, writeLatency,
+                            System.nanoTime() - started, frame);
+                } finally {
+                    frame.release();
+                }
+                sentFrames.increment();
+            }
+        } catch (IOException e) {
+            System.out.println("Stream client " + id + " disconnected or write error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                frameAvailable.await();
+            }
+            return closed ? null : queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Frame queued;
+            while ((queued = queue.pollFirst()) != null) {
+                queued.release();
+            }
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try { out.close(); } catch (IOException closeException) { /* ignore */ }
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    @Override
+    public long getSentFrames() {
+        return sentFrames.sum();
+    }
+
+    @Override
+    public Histogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("id", id);
+        stats.put("engine", "threaded");
+        stats.put("remoteAddress", remoteAddress);
+        stats.put("connectedAtMillis", connectedAtMillis);
+        stats.put("sentFrames", getSentFrames());
+        stats.put("droppedFrames", getDroppedFrames());
+        stats.put("skippedFrames", skippedFrames.sum());
+        stats.put("maxFps", maxFps);
+        stats.put("queuedFrames", getQueuedFrames());
+        return stats;
+    }
+}
@@ -0,0 +1,25 @@
+package org.example;
+
+// A reduced stream variant, e.g. thumb=320x180@60 (name=WIDTHxHEIGHT@JPEG quality)
+public record StreamProfile(String name, int width, int height, int quality) {
+
+    public static StreamProfile parse(String spec) {
+        String[] nameAndFormat = spec.trim().split("=", 2);
+        if (nameAndFormat.length != 2 || nameAndFormat[0].isEmpty()) {
+            throw new IllegalArgumentException("Invalid stream profile '" + spec + "', expected name=WIDTHxHEIGHT@QUALITY");
+        }
+        String format = nameAndFormat[1];
+        int at = format.indexOf('@');
+        int x = format.indexOf('x');
+        if (x < 0 || at < x) {
+            throw new IllegalArgumentException("Invalid stream profile '" + spec + "', expected name=WIDTHxHEIGHT@QUALITY");
+        }
+        int width = Integer.parseInt(format.substring(0, x).trim());
+        int height = Integer.parseInt(format.substring(x + 1, at).trim());
+        int quality = Integer.parseInt(format.substring(at + 1).trim());
+        if (width <= 0 || height <= 0 || quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Invalid stream profile '" + spec + "', size must be positive and quality 1-100");
+        }
+        return new StreamProfile(nameAndFormat[0].trim(), width, height, quality);
+    }
+}
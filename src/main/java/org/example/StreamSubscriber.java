@@ -0,0 +1,27 @@
+package org.example;
+
+import java.util.Map;
+
+// A live /stream viewer the broadcaster hands frames to, whichever engine serves it
+public interface StreamSubscriber {
+
+    long getId();
+
+    // Called by the broadcaster for every frame, must never block on the network.
+    // A subscriber that keeps the frame takes its own reference and releases it when done.
+    void offer(Frame frame);
+
+    void close();
+
+    long getSentFrames();
+
+    long getDroppedFrames();
+
+    int getQueuedFrames();
+
+    // Time taken to write each whole frame to this subscriber, in nanoseconds
+    Histogram getWriteLatency();
+
+    // Snapshot of the subscriber's counters for the statistics endpoint
+    Map<String, Object> toStatistics();
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Reads frames from the C server's Unix domain socket. After the 4 magic bytes "MJF1" every
+// frame is a 4-byte big-endian length followed by the JPEG. There are no part headers to scan,
+// and the payload is read from the socket straight into the pooled direct buffer, so a frame
+// costs a couple of read calls and no copy through a heap array.
+public class UnixSocketFrameReader implements FrameSource {
+    public static final byte[] MAGIC = "MJF1".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocateDirect(4);
+
+    private UnixSocketFrameReader(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public static UnixSocketFrameReader connect(Path socketPath) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            UnixSocketFrameReader reader = new UnixSocketFrameReader(channel);
+            reader.readMagic();
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readMagic() throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        if (!readFully(magic) || !Arrays.equals(magic.array(), MAGIC)) {
+            throw new IOException("Unix socket peer is not an MJF1 frame stream");
+        }
+    }
+
+    @Override
+    public Frame readFrame(FrameBufferPool pool, long sequence) throws IOException {
+        lengthBuffer.clear();
+        if (!readFully(lengthBuffer)) {
+            return null;
+        }
+        int length = lengthBuffer.getInt(0);
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + length + " on Unix socket");
+        }
+
+        FrameBuffer buffer = pool.acquire(length);
+        try {
+            ByteBuffer payload = buffer.buffer().duplicate()
+                    .limit(FrameBuffer.HEADER_ROOM + length)
+                    .position(FrameBuffer.HEADER_ROOM);
+            if (!readFully(payload)) {
+                buffer.release();
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return new Frame(sequence, System.currentTimeMillis(), buffer, length);
+    }
+
+    // Fills the buffer, false if the stream ends first
+    private boolean readFully(ByteBuffer target) throws IOException {
+        try {
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (AsynchronousCloseException e) {
+            throw new IOException("Unix socket closed while reading", e);
+        }
+    }
+
+    // Also called from the watchdog, which wakes a read blocked on the channel
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
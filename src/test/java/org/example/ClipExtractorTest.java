@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClipExtractorTest {
+    private static final int FRAME_SIZE = 100;
+    private static final long FRAME_MILLIS = 40;
+
+    @TempDir
+    Path clipsDir;
+
+    // A segment of `frames` frames of FRAME_SIZE bytes, FRAME_MILLIS apart from startMillis,
+    // with its .idx written the way the recorder writes it
+    private ClipInfo segment(String name, long startMillis, int frames) throws IOException {
+        byte[] data = new byte[frames * FRAME_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / FRAME_SIZE + startMillis);
+        }
+        Files.write(clipsDir.resolve(name), data);
+
+        ByteBuffer index = ByteBuffer.allocate(MjpegSegmentRecorder.INDEX_MAGIC.length + frames * MjpegSegmentRecorder.INDEX_ENTRY_SIZE);
+        index.put(MjpegSegmentRecorder.INDEX_MAGIC);
+        for (int i = 0; i < frames; i++) {
+            index.putLong(startMillis + i * FRAME_MILLIS).putLong((long) i * FRAME_SIZE).putInt(FRAME_SIZE);
+        }
+        Files.write(clipsDir.resolve(MjpegSegmentRecorder.indexName(name)), index.array());
+        return new ClipInfo(name, data.length, startMillis, frames * FRAME_MILLIS, startMillis + frames * FRAME_MILLIS);
+    }
+
+    private List<ClipExtractor.Range> ranges(List<ClipInfo> clips, long fromMillis, long toMillis) throws IOException {
+        return ClipExtractor.mjpegRanges(new ClipExtractor.Plan(clips, true, fromMillis, toMillis), clipsDir);
+    }
+
+    @Test
+    void windowIncludesFromAndExcludesTo() throws IOException {
+        ClipInfo clip = segment("20250513T100000.mjpeg", 1000, 10);
+        Path file = clipsDir.resolve(clip.name());
+
+        // Frames 2, 3 and 4; the frame at 1200 starts the next window
+        assertEquals(List.of(new ClipExtractor.Range(file, 200, 500)), ranges(List.of(clip), 1080, 1200));
+        // Between two frames the window starts at the later one
+        assertEquals(List.of(new ClipExtractor.Range(file, 300, 500)), ranges(List.of(clip), 1081, 1200));
+        assertEquals(List.of(new ClipExtractor.Range(file, 0, 1000)), ranges(List.of(clip), 0, 5000));
+        assertEquals(List.of(new ClipExtractor.Range(file, 900, 1000)), ranges(List.of(clip), 1360, 1361));
+    }
+
+    @Test
+    void windowWithoutFramesGivesNoRange() throws IOException {
+        ClipInfo clip = segment("20250513T100000.mjpeg", 1000, 10);
+
+        assertEquals(List.of(), ranges(List.of(clip), 0, 1000));
+        assertEquals(List.of(), ranges(List.of(clip), 1361, 2000));
+        assertEquals(List.of(), ranges(List.of(clip), 1001, 1040));
+    }
+
+    @Test
+    void partialLastEntryIsIgnored() throws IOException {
+        ClipInfo clip = segment("20250513T100000.mjpeg", 1000, 10);
+        // The recorder was mid-flush when the index was read
+        Files.write(clipsDir.resolve(MjpegSegmentRecorder.indexName(clip.name())), new byte[7], StandardOpenOption.APPEND);
+
+        assertEquals(List.of(new ClipExtractor.Range(clipsDir.resolve(clip.name()), 800, 1000)),
+                ranges(List.of(clip), 1320, 5000));
+    }
+
+    @Test
+    void segmentWithoutIndexIsIncludedWhole() throws IOException {
+        ClipInfo clip = segment("20250513T100000.mjpeg", 1000, 10);
+        Files.delete(clipsDir.resolve(MjpegSegmentRecorder.indexName(clip.name())));
+
+        assertEquals(List.of(new ClipExtractor.Range(clipsDir.resolve(clip.name()), 0, 1000)),
+                ranges(List.of(clip), 1200, 1240));
+    }
+
+    @Test
+    void foreignIndexIsRejected() throws IOException {
+        ClipInfo clip = segment("20250513T100000.mjpeg", 1000, 10);
+        Files.write(clipsDir.resolve(MjpegSegmentRecorder.indexName(clip.name())), new byte[48]);
+
+        assertThrows(IOException.class, () -> ranges(List.of(clip), 1000, 2000));
+    }
+
+    @Test
+    void windowAcrossSegmentsIsWrittenInOrder() throws IOException {
+        ClipInfo first = segment("20250513T100000.mjpeg", 1000, 10);
+        ClipInfo second = segment("20250513T100001.mjpeg", 1400, 10);
+
+        List<ClipExtractor.Range> ranges = ranges(List.of(first, second), 1320, 1480);
+        assertEquals(List.of(new ClipExtractor.Range(clipsDir.resolve(first.name()), 800, 1000),
+                new ClipExtractor.Range(clipsDir.resolve(second.name()), 0, 200)), ranges);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClipExtractor.writeRanges(ranges, out);
+        byte[] expected = new byte[4 * FRAME_SIZE];
+        System.arraycopy(Files.readAllBytes(clipsDir.resolve(first.name())), 800, expected, 0, 200);
+        System.arraycopy(Files.readAllBytes(clipsDir.resolve(second.name())), 0, expected, 200, 200);
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(4 * FRAME_SIZE, ranges.stream().mapToLong(ClipExtractor.Range::length).sum());
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MjpegSegmentRecorderTest {
+    @TempDir
+    Path clipsDir;
+
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private MjpegSegmentRecorder recorder;
+
+    private static long localMillis(int hour, int minute, int second, int millis) {
+        return LocalDateTime.of(2025, 5, 13, hour, minute, second, millis * 1_000_000)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Feeds the frames through onFrame, as the broadcaster does, and waits for the writer
+    private void record(long[] timestamps, byte[][] payloads) {
+        MjpegSegmentRecorder recorder = new MjpegSegmentRecorder("test", clipsDir.toString(), null);
+        recorder.start();
+        for (int i = 0; i < timestamps.length; i++) {
+            Frame frame = TestFrames.frame(pool, i, timestamps[i], payloads[i]);
+            recorder.onFrame(frame);
+            frame.release();
+        }
+        recorder.stop();
+    }
+
+    private record Entry(long timestampMillis, long offset, int length) {}
+
+    private static List<Entry> readIndex(Path index) throws IOException {
+        byte[] bytes = Files.readAllBytes(index);
+        int headerSize = MjpegSegmentRecorder.INDEX_MAGIC.length;
+        assertArrayEquals(MjpegSegmentRecorder.INDEX_MAGIC, Arrays.copyOf(bytes, headerSize));
+        assertEquals(0, (bytes.length - headerSize) % MjpegSegmentRecorder.INDEX_ENTRY_SIZE);
+        ByteBuffer entries = ByteBuffer.wrap(bytes, headerSize, bytes.length - headerSize);
+        List<Entry> result = new ArrayList<>();
+        while (entries.hasRemaining()) {
+            result.add(new Entry(entries.getLong(), entries.getLong(), entries.getInt()));
+        }
+        return result;
+    }
+
+    @Test
+    void indexPointsAtEveryFrameOfTheSegment() throws IOException {
+        int frames = 10;
+        long[] timestamps = new long[frames];
+        byte[][] payloads = new byte[frames][];
+        for (int i = 0; i < frames; i++) {
+            timestamps[i] = localMillis(10, 0, 0, 0) + i * 40L;
+            payloads[i] = TestFrames.jpeg(200 + i * 13, i);
+        }
+        record(timestamps, payloads);
+
+        Path segment = clipsDir.resolve("20250513T100000.mjpeg");
+        Path index = clipsDir.resolve(MjpegSegmentRecorder.indexName(segment.getFileName().toString()));
+        assertTrue(Files.isRegularFile(segment));
+        byte[] data = Files.readAllBytes(segment);
+        List<Entry> entries = readIndex(index);
+
+        assertEquals(frames, entries.size());
+        long offset = 0;
+        for (int i = 0; i < frames; i++) {
+            Entry entry = entries.get(i);
+            assertEquals(timestamps[i], entry.timestampMillis());
+            assertEquals(offset, entry.offset());
+            assertEquals(payloads[i].length, entry.length());
+            assertArrayEquals(payloads[i], Arrays.copyOfRange(data, (int) entry.offset(), (int) entry.offset() + entry.length()));
+            offset += entry.length();
+        }
+        assertEquals(offset, data.length);
+        assertEquals(0L, pool.toStatistics().get("buffersInUse"));
+    }
+
+    @Test
+    void clockBoundaryStartsANewSegmentAndIndex() throws IOException {
+        long[] timestamps = {localMillis(10, 29, 59, 900), localMillis(10, 30, 0, 0), localMillis(10, 30, 0, 40)};
+        byte[][] payloads = {TestFrames.jpeg(100, 0), TestFrames.jpeg(120, 1), TestFrames.jpeg(140, 2)};
+        record(timestamps, payloads);
+
+        List<Entry> first = readIndex(clipsDir.resolve("20250513T102959.idx"));
+        List<Entry> second = readIndex(clipsDir.resolve("20250513T103000.idx"));
+        assertEquals(List.of(new Entry(timestamps[0], 0, 100)), first);
+        assertEquals(List.of(new Entry(timestamps[1], 0, 120), new Entry(timestamps[2], 120, 140)), second);
+        assertEquals(100, Files.size(clipsDir.resolve("20250513T102959.mjpeg")));
+        assertEquals(260, Files.size(clipsDir.resolve("20250513T103000.mjpeg")));
+    }
+
+    @Test
+    void framesTheQueueDroppedComeFromThePreEventBuffer() throws IOException {
+        PreEventBuffer preEvent = new PreEventBuffer(60_000, 1 << 20, 1024);
+        long base = localMillis(10, 0, 0, 0);
+        int frames = 400;
+        for (int i = 0; i < frames; i++) {
+            Frame frame = TestFrames.frame(pool, i, base + i * 40L, TestFrames.jpeg(200, i));
+            preEvent.add(frame);
+            if (i == 20) {
+                recorder = new MjpegSegmentRecorder("test", clipsDir.toString(), preEvent);
+            } else if (i == 200) {
+                // Most of the frames since construction overflowed its queue
+                recorder.start();
+            }
+            if (recorder != null) {
+                recorder.onFrame(frame);
+            }
+            frame.release();
+        }
+        recorder.stop();
+
+        List<Entry> entries = readIndex(clipsDir.resolve("20250513T100000.idx"));
+        assertEquals(frames, entries.size());
+        for (int i = 0; i < frames; i++) {
+            assertEquals(base + i * 40L, entries.get(i).timestampMillis());
+        }
+        assertEquals(0L, pool.toStatistics().get("buffersInUse"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioStreamServerTest {
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private FrameHub hub;
+    private NioStreamServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        hub = new FrameHub("test", new FrameRingBuffer(2));
+        Frame frame = TestFrames.frame(pool, 1, System.currentTimeMillis(), TestFrames.jpeg(100, 1));
+        hub.publish(frame);
+        frame.release();
+        // One selector loop, so a client that killed it would take the next one down with it
+        server = new NioStreamServer(0, 1, 3, 0, (camera, profile) -> camera == null && profile == null ? hub : null);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+        hub.getFrames().clear();
+    }
+
+    // Sends the request and reads until the marker shows up or the server closes the connection
+    private String exchange(String request, String marker) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                received.write(buffer, 0, read);
+                if (received.toString(StandardCharsets.ISO_8859_1).contains(marker)) {
+                    break;
+                }
+            }
+            return received.toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    void malformedEscapesGet400AndTheLoopKeepsServing() throws IOException {
+        String badQuery = exchange("GET /stream?fps=%zz HTTP/1.1\r\nHost: localhost\r\n\r\n", "\r\n\r\n");
+        assertTrue(badQuery.startsWith("HTTP/1.1 400 "), badQuery);
+        String badCamera = exchange("GET /stream/%zz HTTP/1.1\r\nHost: localhost\r\n\r\n", "\r\n\r\n");
+        assertTrue(badCamera.startsWith("HTTP/1.1 400 "), badCamera);
+
+        // The latest frame is sent on subscribe, so a working loop answers with a whole part
+        String good = exchange("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n", "Content-Length: 100\r\n\r\n");
+        assertTrue(good.startsWith("HTTP/1.1 200 OK"), good);
+        assertTrue(good.contains("--" + Frame.BOUNDARY), good);
+    }
+
+    @Test
+    void unknownCameraIsStill404() throws IOException {
+        String response = exchange("GET /stream/garage HTTP/1.1\r\nHost: localhost\r\n\r\n", "\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 404 "), response);
+    }
+}
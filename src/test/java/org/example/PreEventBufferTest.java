@@ -0,0 +1,165 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreEventBufferTest {
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private final Map<Long, byte[]> payloads = new ConcurrentHashMap<>();
+
+    private void add(PreEventBuffer buffer, long sequence, long timestampMillis, int length) {
+        byte[] jpeg = TestFrames.jpeg(length, (int) sequence);
+        payloads.put(sequence, jpeg);
+        Frame frame = TestFrames.frame(pool, sequence, timestampMillis, jpeg);
+        buffer.add(frame);
+        frame.release();
+    }
+
+    // Drains the frames after afterSequence into sequences, checking each payload against what
+    // was added under that sequence
+    private long drain(PreEventBuffer buffer, long afterSequence, List<Long> sequences) throws IOException {
+        return buffer.drainTo(afterSequence, Long.MAX_VALUE, (sequence, timestampMillis, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            assertArrayEquals(payloads.get(sequence), bytes);
+            sequences.add(sequence);
+        });
+    }
+
+    private List<Long> drain(PreEventBuffer buffer) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        drain(buffer, -1, sequences);
+        return sequences;
+    }
+
+    @Test
+    void wrapsAndDropsTheFramesInTheWay() throws IOException {
+        // Room for two 100-byte frames, the third has to wrap
+        PreEventBuffer buffer = new PreEventBuffer(60_000, 250, 16);
+        add(buffer, 0, 0, 100);
+        add(buffer, 1, 40, 100);
+        assertEquals(List.of(0L, 1L), drain(buffer));
+
+        add(buffer, 2, 80, 100);
+        assertEquals(List.of(1L, 2L), drain(buffer));
+        add(buffer, 3, 120, 100);
+        assertEquals(List.of(2L, 3L), drain(buffer));
+        // The tail at 200 is too short again; the wrap drops frame 2 at offset 0
+        add(buffer, 4, 160, 100);
+        assertEquals(List.of(3L, 4L), drain(buffer));
+        assertEquals(200L, buffer.toStatistics().get("bytes"));
+    }
+
+    @Test
+    void smallFramesAfterAWrapKeepTheirOrder() throws IOException {
+        PreEventBuffer buffer = new PreEventBuffer(60_000, 250, 16);
+        add(buffer, 0, 0, 120);
+        add(buffer, 1, 40, 120);
+        // Wraps to 0 and overwrites frame 0 only
+        add(buffer, 2, 80, 60);
+        add(buffer, 3, 120, 60);
+        assertEquals(List.of(1L, 2L, 3L), drain(buffer));
+        // Written after frame 3, over frame 1 in the middle of the arena
+        add(buffer, 4, 160, 100);
+        assertEquals(List.of(2L, 3L, 4L), drain(buffer));
+        // 220 onwards is too short, the wrap takes frame 2's place at 0
+        add(buffer, 5, 200, 40);
+        assertEquals(List.of(3L, 4L, 5L), drain(buffer));
+        assertEquals(200L, buffer.toStatistics().get("bytes"));
+    }
+
+    @Test
+    void framesAgeOutOfTheWindow() throws IOException {
+        PreEventBuffer buffer = new PreEventBuffer(1000, 10_000, 16);
+        add(buffer, 0, 0, 100);
+        add(buffer, 1, 700, 100);
+        add(buffer, 2, 1600, 100);
+        assertEquals(List.of(1L, 2L), drain(buffer));
+        assertEquals(900L, buffer.toStatistics().get("spanMillis"));
+    }
+
+    @Test
+    void maxFramesBoundsTheBuffer() throws IOException {
+        PreEventBuffer buffer = new PreEventBuffer(60_000, 10_000, 3);
+        for (int i = 0; i < 5; i++) {
+            add(buffer, i, i * 40L, 50);
+        }
+        assertEquals(List.of(2L, 3L, 4L), drain(buffer));
+    }
+
+    @Test
+    void oversizedFrameIsSkippedAndDrainKeepsTheFrames() throws IOException {
+        PreEventBuffer buffer = new PreEventBuffer(60_000, 250, 16);
+        add(buffer, 0, 0, 100);
+        add(buffer, 1, 40, 300);
+        assertEquals(1L, buffer.toStatistics().get("skippedFrames"));
+        assertEquals(List.of(0L), drain(buffer));
+        assertEquals(List.of(0L), drain(buffer));
+        assertEquals(0L, pool.toStatistics().get("buffersInUse"));
+    }
+
+    @Test
+    void slowDrainNeitherHoldsUpNorLosesLiveFrames() throws Exception {
+        PreEventBuffer buffer = new PreEventBuffer(60_000, 1 << 20, 1024);
+        for (int i = 0; i < 50; i++) {
+            add(buffer, i, i * 40L, 200);
+        }
+
+        List<Long> preEvent = Collections.synchronizedList(new ArrayList<>());
+        long[] lastPreEvent = new long[1];
+        CountDownLatch draining = new CountDownLatch(1);
+        Thread recorder = new Thread(() -> {
+            try {
+                // Like a recorder writing to a slow card
+                lastPreEvent[0] = buffer.drainTo(-1, Long.MAX_VALUE, (sequence, timestampMillis, payload) -> {
+                    draining.countDown();
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    assertArrayEquals(payloads.get(sequence), bytes);
+                    preEvent.add(sequence);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                });
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        recorder.start();
+        assertTrue(draining.await(5, TimeUnit.SECONDS));
+
+        // Live frames arriving during the 250 ms flush are taken at once, not after it
+        long started = System.nanoTime();
+        for (int i = 50; i < 150; i++) {
+            add(buffer, i, i * 40L, 200);
+        }
+        long addMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        recorder.join();
+        assertTrue(addMillis < 150, "adds waited " + addMillis + " ms for the drain");
+        assertEquals(0L, buffer.toStatistics().get("skippedFrames"));
+
+        // The flush stops at the newest frame it found, the recorder picks up right after it
+        assertEquals(49, lastPreEvent[0]);
+        List<Long> live = new ArrayList<>();
+        assertEquals(149, drain(buffer, lastPreEvent[0], live));
+        List<Long> recorded = new ArrayList<>(preEvent);
+        recorded.addAll(live);
+        assertEquals(LongStream.range(0, 150).boxed().toList(), recorded);
+    }
+}
@@ -0,0 +1,26 @@
+package org.example;
+
+// Frames built from plain byte arrays, the way the frame readers fill pooled buffers
+final class TestFrames {
+    private TestFrames() {
+    }
+
+    static Frame frame(FrameBufferPool pool, long sequence, long timestampMillis, byte[] jpeg) {
+        FrameBuffer buffer = pool.acquire(jpeg.length);
+        buffer.buffer().put(FrameBuffer.HEADER_ROOM, jpeg);
+        return new Frame(sequence, timestampMillis, buffer, jpeg.length);
+    }
+
+    // Distinct bytes per frame, so a payload read back from the wrong place doesn't match
+    static byte[] jpeg(int length, int seed) {
+        byte[] jpeg = new byte[length];
+        for (int i = 0; i < length; i++) {
+            jpeg[i] = (byte) (seed * 31 + i);
+        }
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[length - 2] = (byte) 0xFF;
+        jpeg[length - 1] = (byte) 0xD9;
+        return jpeg;
+    }
+}